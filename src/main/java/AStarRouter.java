@@ -0,0 +1,97 @@
+import java.util.Arrays;
+
+/**
+ * A* shortest path search over a RoadGraph, guided by a Heuristic: by default the
+ * straight-line distance to the target, which is a lower bound since edge weights are the
+ * straight-line lengths of road segments. A router owns all of its working state (g-scores,
+ * predecessors and an indexed heap), sized once to the graph; per-vertex state is invalidated
+ * between queries by bumping a generation counter instead of clearing arrays, so a query
+ * allocates nothing but its result.
+ */
+public class AStarRouter implements Router {
+    private final RoadGraph graph;
+    private final Heuristic heuristic;
+    private final IndexedMinHeap fringe;
+    private final double[] distance;
+    private final int[] predecessor;
+    /** distance and predecessor of v are valid only if reached[v] == generation. */
+    private final int[] reached;
+    /** v has been settled by the current query iff settled[v] == generation. */
+    private final int[] settled;
+    private int generation;
+    private int settledCount;
+
+    public AStarRouter(RoadGraph graph) {
+        this(graph, graph::distance);
+    }
+
+    public AStarRouter(RoadGraph graph, Heuristic heuristic) {
+        this.graph = graph;
+        this.heuristic = heuristic;
+        this.fringe = new IndexedMinHeap(graph.vertexCount());
+        this.distance = new double[graph.vertexCount()];
+        this.predecessor = new int[graph.vertexCount()];
+        this.reached = new int[graph.vertexCount()];
+        this.settled = new int[graph.vertexCount()];
+    }
+
+    @Override
+    public int[] route(int start, int end) {
+        nextGeneration();
+        fringe.clear();
+        settledCount = 0;
+        distance[start] = 0;
+        predecessor[start] = -1;
+        reached[start] = generation;
+        fringe.insertOrDecrease(start, heuristic.estimate(start, end));
+        while (!fringe.isEmpty()) {
+            int node = fringe.poll();
+            settled[node] = generation;
+            settledCount++;
+            if (node == end) {
+                return path(end);
+            }
+            double nodeDist = distance[node];
+            for (int e = graph.firstEdge(node); e < graph.endEdge(node); e++) {
+                int w = graph.target(e);
+                if (settled[w] == generation) {
+                    continue;
+                }
+                double wDist = nodeDist + graph.weight(e);
+                if (reached[w] != generation || wDist < distance[w]) {
+                    reached[w] = generation;
+                    distance[w] = wDist;
+                    predecessor[w] = node;
+                    fringe.insertOrDecrease(w, wDist + heuristic.estimate(w, end));
+                }
+            }
+        }
+        return new int[0];
+    }
+
+    @Override
+    public int settledCount() {
+        return settledCount;
+    }
+
+    private int[] path(int end) {
+        int length = 0;
+        for (int v = end; v != -1; v = predecessor[v]) {
+            length++;
+        }
+        int[] path = new int[length];
+        for (int v = end; v != -1; v = predecessor[v]) {
+            path[--length] = v;
+        }
+        return path;
+    }
+
+    private void nextGeneration() {
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(reached, 0);
+            Arrays.fill(settled, 0);
+            generation = 1;
+        }
+    }
+}
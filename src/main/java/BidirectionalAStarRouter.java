@@ -0,0 +1,150 @@
+import java.util.Arrays;
+
+/**
+ * Bidirectional A*: one search grows forward from the start and one backward from the end,
+ * alternating by smallest key, until their frontiers prove that the best connection found so
+ * far is shortest. Both searches use the average potential
+ * <pre>
+ *     pf(v) = (h(v, end) - h(v, start)) / 2,    pb(v) = -pf(v)
+ * </pre>
+ * which makes the reduced edge weights w(u, v) - pf(u) + pf(v) the same non-negative numbers
+ * in both directions. The two searches are then a plain bidirectional Dijkstra on the reduced
+ * graph, so it is safe to stop as soon as the smallest forward key plus the smallest backward
+ * key reaches the length of the best path seen, where a key is distance plus potential.
+ * Per-query state is reused through generation stamps, as in {@link AStarRouter}.
+ */
+public class BidirectionalAStarRouter implements Router {
+    private static final int FORWARD = 0;
+    private static final int BACKWARD = 1;
+
+    private final RoadGraph graph;
+    private final Heuristic heuristic;
+    private final IndexedMinHeap[] fringe = new IndexedMinHeap[2];
+    private final double[][] distance = new double[2][];
+    private final int[][] predecessor = new int[2][];
+    private final int[][] reached = new int[2][];
+    private final int[][] settled = new int[2][];
+    private int generation;
+    private int settledCount;
+    private int start;
+    private int end;
+
+    public BidirectionalAStarRouter(RoadGraph graph) {
+        this(graph, graph::distance);
+    }
+
+    public BidirectionalAStarRouter(RoadGraph graph, Heuristic heuristic) {
+        this.graph = graph;
+        this.heuristic = heuristic;
+        int n = graph.vertexCount();
+        for (int side = FORWARD; side <= BACKWARD; side++) {
+            fringe[side] = new IndexedMinHeap(n);
+            distance[side] = new double[n];
+            predecessor[side] = new int[n];
+            reached[side] = new int[n];
+            settled[side] = new int[n];
+        }
+    }
+
+    @Override
+    public int[] route(int startVertex, int endVertex) {
+        start = startVertex;
+        end = endVertex;
+        nextGeneration();
+        settledCount = 0;
+        init(FORWARD, start);
+        init(BACKWARD, end);
+        double best = Double.POSITIVE_INFINITY;
+        int meeting = -1;
+        if (start == end) {
+            best = 0;
+            meeting = start;
+        }
+        while (!fringe[FORWARD].isEmpty() && !fringe[BACKWARD].isEmpty()) {
+            if (fringe[FORWARD].peekKey() + fringe[BACKWARD].peekKey() >= best) {
+                break;
+            }
+            int side = fringe[FORWARD].peekKey() <= fringe[BACKWARD].peekKey()
+                    ? FORWARD : BACKWARD;
+            int other = 1 - side;
+            int u = fringe[side].poll();
+            settled[side][u] = generation;
+            settledCount++;
+            double uDist = distance[side][u];
+            for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                int w = graph.target(e);
+                if (settled[side][w] == generation) {
+                    continue;
+                }
+                double wDist = uDist + graph.weight(e);
+                if (reached[side][w] != generation || wDist < distance[side][w]) {
+                    reached[side][w] = generation;
+                    distance[side][w] = wDist;
+                    predecessor[side][w] = u;
+                    fringe[side].insertOrDecrease(w, wDist + potential(side, w));
+                    if (reached[other][w] == generation
+                            && wDist + distance[other][w] < best) {
+                        best = wDist + distance[other][w];
+                        meeting = w;
+                    }
+                }
+            }
+        }
+        if (meeting < 0) {
+            return new int[0];
+        }
+        return path(meeting);
+    }
+
+    @Override
+    public int settledCount() {
+        return settledCount;
+    }
+
+    /** The potential of v for the given search side; pb is the negation of pf. */
+    private double potential(int side, int v) {
+        double pf = (heuristic.estimate(v, end) - heuristic.estimate(v, start)) / 2;
+        return side == FORWARD ? pf : -pf;
+    }
+
+    private void init(int side, int origin) {
+        fringe[side].clear();
+        reached[side][origin] = generation;
+        distance[side][origin] = 0;
+        predecessor[side][origin] = -1;
+        fringe[side].insertOrDecrease(origin, potential(side, origin));
+    }
+
+    /** Joins the forward chain start..meeting with the backward chain meeting..end. */
+    private int[] path(int meeting) {
+        int up = 0;
+        for (int v = meeting; v != -1; v = predecessor[FORWARD][v]) {
+            up++;
+        }
+        int down = 0;
+        for (int v = predecessor[BACKWARD][meeting]; v != -1; v = predecessor[BACKWARD][v]) {
+            down++;
+        }
+        int[] path = new int[up + down];
+        int i = up;
+        for (int v = meeting; v != -1; v = predecessor[FORWARD][v]) {
+            path[--i] = v;
+        }
+        i = up;
+        for (int v = predecessor[BACKWARD][meeting]; v != -1; v = predecessor[BACKWARD][v]) {
+            path[i++] = v;
+        }
+        return path;
+    }
+
+    private void nextGeneration() {
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            for (int side = FORWARD; side <= BACKWARD; side++) {
+                Arrays.fill(reached[side], 0);
+                Arrays.fill(settled[side], 0);
+            }
+            generation = 1;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import java.util.Arrays;
+
+/**
+ * Answers shortest path queries on a ContractionHierarchy with two Dijkstra searches that only
+ * follow upward edges, one from the start and one from the end. Every shortest path in the
+ * hierarchy climbs to a single highest-ranked vertex and descends again, so the best sum of
+ * forward and backward distances over the vertices both searches reach is the shortest
+ * distance. A search stops once its smallest queued distance reaches that best sum. The
+ * winning up-down path is then unpacked, shortcut by shortcut, into original road edges.
+ */
+public class CHRouter implements Router {
+    private static final int FORWARD = 0;
+    private static final int BACKWARD = 1;
+
+    private final ContractionHierarchy hierarchy;
+    private final IndexedMinHeap[] fringe = new IndexedMinHeap[2];
+    private final double[][] distance = new double[2][];
+    /** The upward edge each search reached a vertex through, or -1 at the search's origin. */
+    private final int[][] parentEdge = new int[2][];
+    private final int[][] parent = new int[2][];
+    private final int[][] reached = new int[2][];
+    private int generation;
+    private int settledCount;
+    private int[] chainBuffer = new int[64];
+    private int[] pathBuffer = new int[64];
+    private int pathLength;
+
+    public CHRouter(ContractionHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+        int n = hierarchy.graph().vertexCount();
+        for (int side = FORWARD; side <= BACKWARD; side++) {
+            fringe[side] = new IndexedMinHeap(n);
+            distance[side] = new double[n];
+            parentEdge[side] = new int[n];
+            parent[side] = new int[n];
+            reached[side] = new int[n];
+        }
+    }
+
+    @Override
+    public int[] route(int start, int end) {
+        nextGeneration();
+        settledCount = 0;
+        init(FORWARD, start);
+        init(BACKWARD, end);
+        double best = start == end ? 0 : Double.POSITIVE_INFINITY;
+        int meeting = start == end ? start : -1;
+        while (true) {
+            boolean forwardDone = fringe[FORWARD].isEmpty()
+                    || fringe[FORWARD].peekKey() >= best;
+            boolean backwardDone = fringe[BACKWARD].isEmpty()
+                    || fringe[BACKWARD].peekKey() >= best;
+            if (forwardDone && backwardDone) {
+                break;
+            }
+            int side;
+            if (forwardDone) {
+                side = BACKWARD;
+            } else if (backwardDone) {
+                side = FORWARD;
+            } else {
+                side = fringe[FORWARD].peekKey() <= fringe[BACKWARD].peekKey()
+                        ? FORWARD : BACKWARD;
+            }
+            int other = 1 - side;
+            int u = fringe[side].poll();
+            settledCount++;
+            double uDist = distance[side][u];
+            for (int e = hierarchy.firstEdge(u); e < hierarchy.endEdge(u); e++) {
+                int w = hierarchy.target(e);
+                double wDist = uDist + hierarchy.weight(e);
+                if (reached[side][w] != generation || wDist < distance[side][w]) {
+                    reached[side][w] = generation;
+                    distance[side][w] = wDist;
+                    parentEdge[side][w] = e;
+                    parent[side][w] = u;
+                    fringe[side].insertOrDecrease(w, wDist);
+                    if (reached[other][w] == generation
+                            && wDist + distance[other][w] < best) {
+                        best = wDist + distance[other][w];
+                        meeting = w;
+                    }
+                }
+            }
+        }
+        if (meeting < 0) {
+            return new int[0];
+        }
+        return unpack(meeting);
+    }
+
+    @Override
+    public int settledCount() {
+        return settledCount;
+    }
+
+    private void init(int side, int origin) {
+        fringe[side].clear();
+        reached[side][origin] = generation;
+        distance[side][origin] = 0;
+        parentEdge[side][origin] = -1;
+        parent[side][origin] = -1;
+        fringe[side].insertOrDecrease(origin, 0);
+    }
+
+    /**
+     * Expands the up-down path through meeting into original vertices: first the forward
+     * search's edges from the start up to meeting, then the backward search's edges from
+     * meeting down to the end.
+     */
+    private int[] unpack(int meeting) {
+        int upEdges = 0;
+        for (int v = meeting; parent[FORWARD][v] != -1; v = parent[FORWARD][v]) {
+            upEdges++;
+        }
+        if (chainBuffer.length <= upEdges) {
+            chainBuffer = new int[2 * (upEdges + 1)];
+        }
+        int[] chain = chainBuffer;
+        int i = upEdges;
+        for (int v = meeting; v != -1; v = parent[FORWARD][v]) {
+            chain[i--] = v;
+        }
+        pathLength = 0;
+        append(chain[0]);
+        for (int k = 0; k < upEdges; k++) {
+            int e = parentEdge[FORWARD][chain[k + 1]];
+            unpackEdge(chain[k], chain[k + 1], hierarchy.middle(e));
+        }
+        for (int v = meeting; parent[BACKWARD][v] != -1; v = parent[BACKWARD][v]) {
+            int e = parentEdge[BACKWARD][v];
+            unpackEdge(v, parent[BACKWARD][v], hierarchy.middle(e));
+        }
+        return Arrays.copyOf(pathBuffer, pathLength);
+    }
+
+    /**
+     * Appends the original vertices of the edge from-to after from, ending with to. A shortcut
+     * through middle is the concatenation of the edges from-middle and middle-to, both of
+     * which are upward edges of middle since it was contracted before either endpoint.
+     */
+    private void unpackEdge(int from, int to, int middle) {
+        if (middle < 0) {
+            append(to);
+            return;
+        }
+        unpackEdge(from, middle, hierarchy.middleOf(middle, from));
+        unpackEdge(middle, to, hierarchy.middleOf(middle, to));
+    }
+
+    private void append(int v) {
+        if (pathLength == pathBuffer.length) {
+            pathBuffer = Arrays.copyOf(pathBuffer, pathLength * 2);
+        }
+        pathBuffer[pathLength++] = v;
+    }
+
+    private void nextGeneration() {
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(reached[FORWARD], 0);
+            Arrays.fill(reached[BACKWARD], 0);
+            generation = 1;
+        }
+    }
+}
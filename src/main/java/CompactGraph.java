@@ -0,0 +1,231 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Immutable road graph in compressed sparse row (CSR) form, held in heap arrays. Vertices are
+ * dense int ids in [0, vertexCount()), with their coordinates and OSM ids held in parallel
+ * primitive arrays.
+ * The outgoing edges of vertex v occupy the index range [firstEdge(v), endEdge(v)) of the
+ * target and weight arrays, so iterating a neighborhood touches two contiguous array slices
+ * and allocates nothing:
+ * <pre>
+ *     for (int e = graph.firstEdge(v); e &lt; graph.endEdge(v); e++) {
+ *         int w = graph.target(e);
+ *         double weight = graph.weight(e);
+ *     }
+ * </pre>
+ * Instances are created through {@link Builder} once parsing of the OSM file has finished, or
+ * read back from a {@link GraphSnapshot}.
+ */
+public class CompactGraph implements RoadGraph {
+    private final int vertexCount;
+    private final double[] lat;
+    private final double[] lon;
+    private final long[] osmId;
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+
+    private CompactGraph(int vertexCount, double[] lat, double[] lon, long[] osmId,
+                         int[] offsets, int[] targets, double[] weights) {
+        this.vertexCount = vertexCount;
+        this.lat = lat;
+        this.lon = lon;
+        this.osmId = osmId;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+    }
+
+    @Override
+    public int vertexCount() {
+        return vertexCount;
+    }
+
+    @Override
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    @Override
+    public double lat(int v) {
+        return lat[v];
+    }
+
+    @Override
+    public double lon(int v) {
+        return lon[v];
+    }
+
+    @Override
+    public long osmId(int v) {
+        return osmId[v];
+    }
+
+    @Override
+    public int firstEdge(int v) {
+        return offsets[v];
+    }
+
+    @Override
+    public int endEdge(int v) {
+        return offsets[v + 1];
+    }
+
+    @Override
+    public int degree(int v) {
+        return offsets[v + 1] - offsets[v];
+    }
+
+    @Override
+    public int target(int e) {
+        return targets[e];
+    }
+
+    @Override
+    public double weight(int e) {
+        return weights[e];
+    }
+
+    @Override
+    public double distance(int u, int v) {
+        double dLat = lat[u] - lat[v];
+        double dLon = lon[u] - lon[v];
+        return Math.sqrt(dLat * dLat + dLon * dLon);
+    }
+
+    /**
+     * Writes the graph's arrays to out, in the layout {@link #read} expects.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(vertexCount);
+        out.writeInt(targets.length);
+        for (int v = 0; v < vertexCount; v++) {
+            out.writeDouble(lat[v]);
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            out.writeDouble(lon[v]);
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            out.writeLong(osmId[v]);
+        }
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        for (int target : targets) {
+            out.writeInt(target);
+        }
+        for (double weight : weights) {
+            out.writeDouble(weight);
+        }
+    }
+
+    /**
+     * Reads a graph written by {@link #write} from the buffer's current position, leaving the
+     * position just past it.
+     */
+    static CompactGraph read(ByteBuffer in) {
+        int vertexCount = in.getInt();
+        int edgeCount = in.getInt();
+        double[] lat = new double[vertexCount];
+        double[] lon = new double[vertexCount];
+        long[] osmId = new long[vertexCount];
+        int[] offsets = new int[vertexCount + 1];
+        int[] targets = new int[edgeCount];
+        double[] weights = new double[edgeCount];
+        in.asDoubleBuffer().get(lat);
+        in.position(in.position() + 8 * vertexCount);
+        in.asDoubleBuffer().get(lon);
+        in.position(in.position() + 8 * vertexCount);
+        in.asLongBuffer().get(osmId);
+        in.position(in.position() + 8 * vertexCount);
+        in.asIntBuffer().get(offsets);
+        in.position(in.position() + 4 * (vertexCount + 1));
+        in.asIntBuffer().get(targets);
+        in.position(in.position() + 4 * edgeCount);
+        in.asDoubleBuffer().get(weights);
+        in.position(in.position() + 8 * edgeCount);
+        return new CompactGraph(vertexCount, lat, lon, osmId, offsets, targets, weights);
+    }
+
+    /**
+     * Accumulates vertices and undirected edges while the OSM file is parsed, then lays them out
+     * as a CompactGraph sized to the number of vertices actually seen. Each undirected edge
+     * becomes two directed edges; a vertex's edges keep the order in which they were added.
+     */
+    public static class Builder {
+        private final HashMap<Long, Integer> idToVertex = new HashMap<>();
+        private double[] lat = new double[1024];
+        private double[] lon = new double[1024];
+        private long[] osmId = new long[1024];
+        private int vertexCount;
+
+        private int[] edgeFrom = new int[1024];
+        private int[] edgeTo = new int[1024];
+        private double[] edgeWeight = new double[1024];
+        private int edgeCount;
+
+        /**
+         * Returns the vertex id for the given OSM node, adding the node if it is new.
+         */
+        public int addVertex(long id, double vertexLat, double vertexLon) {
+            Integer existing = idToVertex.get(id);
+            if (existing != null) {
+                return existing;
+            }
+            if (vertexCount == lat.length) {
+                lat = Arrays.copyOf(lat, vertexCount * 2);
+                lon = Arrays.copyOf(lon, vertexCount * 2);
+                osmId = Arrays.copyOf(osmId, vertexCount * 2);
+            }
+            lat[vertexCount] = vertexLat;
+            lon[vertexCount] = vertexLon;
+            osmId[vertexCount] = id;
+            idToVertex.put(id, vertexCount);
+            return vertexCount++;
+        }
+
+        /**
+         * Adds an undirected edge between two vertices returned by {@link #addVertex}.
+         */
+        public void addEdge(int from, int to, double weight) {
+            if (edgeCount == edgeFrom.length) {
+                edgeFrom = Arrays.copyOf(edgeFrom, edgeCount * 2);
+                edgeTo = Arrays.copyOf(edgeTo, edgeCount * 2);
+                edgeWeight = Arrays.copyOf(edgeWeight, edgeCount * 2);
+            }
+            edgeFrom[edgeCount] = from;
+            edgeTo[edgeCount] = to;
+            edgeWeight[edgeCount] = weight;
+            edgeCount++;
+        }
+
+        public CompactGraph build() {
+            int[] offsets = new int[vertexCount + 1];
+            for (int i = 0; i < edgeCount; i++) {
+                offsets[edgeFrom[i] + 1]++;
+                offsets[edgeTo[i] + 1]++;
+            }
+            for (int v = 0; v < vertexCount; v++) {
+                offsets[v + 1] += offsets[v];
+            }
+            int[] next = Arrays.copyOf(offsets, vertexCount);
+            int[] targets = new int[2 * edgeCount];
+            double[] weights = new double[2 * edgeCount];
+            for (int i = 0; i < edgeCount; i++) {
+                int e = next[edgeFrom[i]]++;
+                targets[e] = edgeTo[i];
+                weights[e] = edgeWeight[i];
+                e = next[edgeTo[i]]++;
+                targets[e] = edgeFrom[i];
+                weights[e] = edgeWeight[i];
+            }
+            return new CompactGraph(vertexCount, Arrays.copyOf(lat, vertexCount),
+                    Arrays.copyOf(lon, vertexCount), Arrays.copyOf(osmId, vertexCount),
+                    offsets, targets, weights);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+import java.util.Arrays;
+
+/**
+ * Contraction hierarchy over a RoadGraph. Vertices are contracted one at a time in order of
+ * importance (fewest added shortcuts first); contracting v removes it from the remaining graph
+ * and adds a shortcut u-w of weight d(u, v) + d(v, w) for every pair of remaining neighbors
+ * whose shortest connection runs through v. The result is stored as the "upward" graph: the
+ * edges and shortcuts of each vertex that lead to vertices contracted after it, in CSR form.
+ * <p>
+ * Since every road in the graph can be driven both ways, the same upward graph serves both the
+ * forward search from the start and the backward search from the end; see {@link CHRouter}.
+ * Each shortcut remembers the vertex it bypasses so routes can be unpacked to original edges.
+ */
+public class ContractionHierarchy {
+    /** Witness searches give up after settling this many vertices and add the shortcut. */
+    private static final int WITNESS_SETTLE_LIMIT = 64;
+
+    private final RoadGraph graph;
+    private final int[] rank;
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    /** The contracted vertex an upward edge bypasses, or -1 for an original road edge. */
+    private final int[] middles;
+
+    public ContractionHierarchy(RoadGraph graph) {
+        this.graph = graph;
+        Contractor contractor = new Contractor(graph);
+        contractor.contractAll();
+        this.rank = contractor.rank;
+        this.offsets = contractor.upOffsets;
+        this.targets = contractor.upTargets;
+        this.weights = contractor.upWeights;
+        this.middles = contractor.upMiddles;
+    }
+
+    public RoadGraph graph() {
+        return graph;
+    }
+
+    /** Returns the position of v in the contraction order; higher ranks are more important. */
+    public int rank(int v) {
+        return rank[v];
+    }
+
+    public int firstEdge(int v) {
+        return offsets[v];
+    }
+
+    public int endEdge(int v) {
+        return offsets[v + 1];
+    }
+
+    public int target(int e) {
+        return targets[e];
+    }
+
+    public double weight(int e) {
+        return weights[e];
+    }
+
+    public int middle(int e) {
+        return middles[e];
+    }
+
+    /** Returns the number of upward edges that are shortcuts. */
+    public int shortcutCount() {
+        int count = 0;
+        for (int middle : middles) {
+            if (middle >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the middle vertex of the upward edge from lower to higher, which must exist.
+     */
+    int middleOf(int lower, int higher) {
+        for (int e = offsets[lower]; e < offsets[lower + 1]; e++) {
+            if (targets[e] == higher) {
+                return middles[e];
+            }
+        }
+        throw new IllegalStateException("No upward edge " + lower + " -> " + higher);
+    }
+
+    /**
+     * Mutable working state of the contraction. The remaining graph is kept as one growable
+     * adjacency list per vertex holding at most one edge per neighbor; edges to contracted
+     * vertices are dropped lazily.
+     */
+    private static class Contractor {
+        private final int n;
+        private final int[][] adjTarget;
+        private final double[][] adjWeight;
+        private final int[][] adjMiddle;
+        private final int[] adjSize;
+        private final boolean[] contracted;
+        private final int[] contractedNeighbors;
+        private final int[] rank;
+
+        /* Witness search state, reused through generation stamps. */
+        private final IndexedMinHeap witnessFringe;
+        private final double[] witnessDist;
+        private final int[] witnessReached;
+        private int generation;
+
+        /* Upward edges, collected per vertex as it is contracted. */
+        private int[] upOffsets;
+        private int[] upTargets;
+        private double[] upWeights;
+        private int[] upMiddles;
+
+        Contractor(RoadGraph graph) {
+            n = graph.vertexCount();
+            adjTarget = new int[n][];
+            adjWeight = new double[n][];
+            adjMiddle = new int[n][];
+            adjSize = new int[n];
+            contracted = new boolean[n];
+            contractedNeighbors = new int[n];
+            rank = new int[n];
+            witnessFringe = new IndexedMinHeap(n);
+            witnessDist = new double[n];
+            witnessReached = new int[n];
+            for (int v = 0; v < n; v++) {
+                int degree = Math.max(graph.degree(v), 1);
+                adjTarget[v] = new int[degree];
+                adjWeight[v] = new double[degree];
+                adjMiddle[v] = new int[degree];
+            }
+            for (int v = 0; v < n; v++) {
+                for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+                    if (graph.target(e) != v) {
+                        addOrImprove(v, graph.target(e), graph.weight(e), -1);
+                    }
+                }
+            }
+        }
+
+        void contractAll() {
+            IndexedMinHeap queue = new IndexedMinHeap(n);
+            for (int v = 0; v < n; v++) {
+                queue.insertOrDecrease(v, priority(v));
+            }
+            int next = 0;
+            while (!queue.isEmpty()) {
+                int v = queue.poll();
+                /* Lazy update: contracting neighbors may have made v more expensive. */
+                double p = priority(v);
+                if (!queue.isEmpty() && p > queue.peekKey()) {
+                    queue.insertOrDecrease(v, p);
+                    continue;
+                }
+                contract(v);
+                rank[v] = next++;
+            }
+            collectUpwardEdges();
+        }
+
+        /** Edge difference plus the number of already contracted neighbors. */
+        private double priority(int v) {
+            dropContracted(v);
+            int shortcuts = shortcuts(v, false);
+            return shortcuts - adjSize[v] + contractedNeighbors[v];
+        }
+
+        private void contract(int v) {
+            dropContracted(v);
+            shortcuts(v, true);
+            contracted[v] = true;
+            for (int i = 0; i < adjSize[v]; i++) {
+                contractedNeighbors[adjTarget[v][i]]++;
+            }
+        }
+
+        /**
+         * Counts the shortcuts needed to contract v and, if add is set, inserts them. For each
+         * remaining neighbor u, a bounded Dijkstra from u that avoids v looks for witness paths
+         * to the neighbors after u that are no longer than the path through v.
+         */
+        private int shortcuts(int v, boolean add) {
+            int count = 0;
+            int size = adjSize[v];
+            for (int i = 0; i + 1 < size; i++) {
+                int u = adjTarget[v][i];
+                double maxDist = 0;
+                for (int j = i + 1; j < size; j++) {
+                    maxDist = Math.max(maxDist, adjWeight[v][i] + adjWeight[v][j]);
+                }
+                witnessSearch(u, v, maxDist);
+                for (int j = i + 1; j < size; j++) {
+                    int w = adjTarget[v][j];
+                    double viaV = adjWeight[v][i] + adjWeight[v][j];
+                    if (witnessReached[w] == generation && witnessDist[w] <= viaV) {
+                        continue;
+                    }
+                    count++;
+                    if (add) {
+                        addOrImprove(u, w, viaV, v);
+                        addOrImprove(w, u, viaV, v);
+                    }
+                }
+            }
+            return count;
+        }
+
+        private void witnessSearch(int source, int avoid, double maxDist) {
+            generation++;
+            witnessFringe.clear();
+            witnessDist[source] = 0;
+            witnessReached[source] = generation;
+            witnessFringe.insertOrDecrease(source, 0);
+            int settled = 0;
+            while (!witnessFringe.isEmpty() && settled < WITNESS_SETTLE_LIMIT) {
+                if (witnessFringe.peekKey() > maxDist) {
+                    break;
+                }
+                int x = witnessFringe.poll();
+                settled++;
+                for (int i = 0; i < adjSize[x]; i++) {
+                    int y = adjTarget[x][i];
+                    if (y == avoid || contracted[y]) {
+                        continue;
+                    }
+                    double d = witnessDist[x] + adjWeight[x][i];
+                    if (witnessReached[y] != generation || d < witnessDist[y]) {
+                        witnessReached[y] = generation;
+                        witnessDist[y] = d;
+                        witnessFringe.insertOrDecrease(y, d);
+                    }
+                }
+            }
+        }
+
+        /** Adds the edge from-to, or lowers its weight if a heavier one is already present. */
+        private void addOrImprove(int from, int to, double weight, int middle) {
+            for (int i = 0; i < adjSize[from]; i++) {
+                if (adjTarget[from][i] == to) {
+                    if (weight < adjWeight[from][i]) {
+                        adjWeight[from][i] = weight;
+                        adjMiddle[from][i] = middle;
+                    }
+                    return;
+                }
+            }
+            int size = adjSize[from];
+            if (size == adjTarget[from].length) {
+                adjTarget[from] = Arrays.copyOf(adjTarget[from], size * 2);
+                adjWeight[from] = Arrays.copyOf(adjWeight[from], size * 2);
+                adjMiddle[from] = Arrays.copyOf(adjMiddle[from], size * 2);
+            }
+            adjTarget[from][size] = to;
+            adjWeight[from][size] = weight;
+            adjMiddle[from][size] = middle;
+            adjSize[from]++;
+        }
+
+        /** Removes the edges from v to contracted vertices, keeping the others in order. */
+        private void dropContracted(int v) {
+            int kept = 0;
+            for (int i = 0; i < adjSize[v]; i++) {
+                if (!contracted[adjTarget[v][i]]) {
+                    adjTarget[v][kept] = adjTarget[v][i];
+                    adjWeight[v][kept] = adjWeight[v][i];
+                    adjMiddle[v][kept] = adjMiddle[v][i];
+                    kept++;
+                }
+            }
+            adjSize[v] = kept;
+        }
+
+        /**
+         * At the time v was contracted its adjacency list held exactly its edges to vertices
+         * contracted later, and nothing has touched it since, so those lists are the upward graph.
+         */
+        private void collectUpwardEdges() {
+            upOffsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                upOffsets[v + 1] = upOffsets[v] + adjSize[v];
+            }
+            upTargets = new int[upOffsets[n]];
+            upWeights = new double[upOffsets[n]];
+            upMiddles = new int[upOffsets[n]];
+            for (int v = 0; v < n; v++) {
+                System.arraycopy(adjTarget[v], 0, upTargets, upOffsets[v], adjSize[v]);
+                System.arraycopy(adjWeight[v], 0, upWeights, upOffsets[v], adjSize[v]);
+                System.arraycopy(adjMiddle[v], 0, upMiddles, upOffsets[v], adjSize[v]);
+            }
+        }
+    }
+}
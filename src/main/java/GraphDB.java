@@ -2,7 +2,6 @@ import org.xml.sax.SAXException;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.*;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -14,11 +13,12 @@ import javax.xml.parsers.SAXParserFactory;
  */
 public class GraphDB {
 
-    private LinkedList<Edge>[] adjLists;
-    private HashMap<Point, Integer> vertexAddress;
-    private Trie autocompleteTrie;
-    private HashMap<String, LinkedList<Map<String, Object>>> search;
-    private DictionaryBasedTrie trieAgain;
+    private CompactGraph.Builder graphBuilder;
+    private RoadGraph graph;
+    /** Collects the named nodes while parsing, until the name index is built. */
+    private NameIndex.Builder nameIndexBuilder;
+    private NameIndex nameIndex;
+    private KdTree vertexIndex;
 
     //we may need to override Point::equals and hashCode
     //startVertex will be defined by each new created iterator!
@@ -30,42 +30,102 @@ public class GraphDB {
      * @param dbPath Path to the XML file to be parsed.
      */
     public GraphDB(String dbPath) {
-        this.adjLists = new LinkedList[30000];
-        for (int i = 0; i < adjLists.length; i++) {
-            adjLists[i] = new LinkedList<Edge>();
+        this(dbPath, false);
+    }
+
+    /**
+     * Loads the graph from the snapshot next to dbPath if it is current, and otherwise parses
+     * the XML file and writes a new snapshot.
+     * @param dbPath Path to the XML file to be parsed.
+     * @param mapped Whether to keep the road graph in the memory-mapped snapshot instead of on
+     *               the heap; see {@link MappedGraph}.
+     */
+    public GraphDB(String dbPath, boolean mapped) {
+        this.graphBuilder = new CompactGraph.Builder();
+        this.nameIndexBuilder = new NameIndex.Builder();
+
+        File inputFile = new File(dbPath);
+        File snapshotFile = new File(dbPath + GraphSnapshot.SUFFIX);
+        GraphSnapshot snapshot = GraphSnapshot.read(snapshotFile, inputFile, mapped);
+        if (snapshot == null) {
+            boolean parsed = parse(inputFile, IngestPipeline.defaultThreads(),
+                    IngestPipeline.twoPass(), IngestPipeline.BATCH_SIZE);
+            CompactGraph parsedGraph = buildIndexes();
+            if (parsed) {
+                GraphSnapshot.write(snapshotFile, inputFile, parsedGraph, vertexIndex, nameIndex);
+                if (mapped) {
+                    snapshot = GraphSnapshot.read(snapshotFile, inputFile, true);
+                }
+            }
         }
-        this.autocompleteTrie = new Trie();
-        this.search = new HashMap<>();
-        this.vertexAddress = new HashMap<>();
-        this.trieAgain = new DictionaryBasedTrie();
+        if (snapshot != null) {
+            this.graph = snapshot.graph();
+            this.vertexIndex = snapshot.vertexIndex();
+            this.nameIndex = snapshot.nameIndex();
+        }
+        this.nameIndexBuilder = null;
+        this.graphBuilder = null;
+    }
 
+    /**
+     * Parses the XML file with the given ingest settings, ignoring and writing no snapshot.
+     * @param threads Number of ingest worker threads.
+     * @param twoPass Whether to scan for the road nodes first; see {@link RoadNodeScanner}.
+     * @param batchSize Records per ingest batch.
+     */
+    GraphDB(File inputFile, int threads, boolean twoPass, int batchSize) {
+        this.graphBuilder = new CompactGraph.Builder();
+        this.nameIndexBuilder = new NameIndex.Builder();
+        parse(inputFile, threads, twoPass, batchSize);
+        buildIndexes();
+        this.nameIndexBuilder = null;
+        this.graphBuilder = null;
+    }
+
+    /**
+     * Reads the XML file into the graph and name index builders.
+     * @return whether the whole file was parsed.
+     */
+    private boolean parse(File inputFile, int threads, boolean twoPass, int batchSize) {
         try {
-            File inputFile = new File(dbPath);
             SAXParserFactory factory = SAXParserFactory.newInstance();
             SAXParser saxParser = factory.newSAXParser();
-            MapDBHandler maphandler = new MapDBHandler(this);
-            saxParser.parse(inputFile, maphandler);
+            LongIndex roadNodes = null;
+            if (twoPass) {
+                RoadNodeScanner scanner = new RoadNodeScanner();
+                saxParser.parse(inputFile, scanner);
+                saxParser.reset();
+                roadNodes = scanner.roadNodes();
+            }
+            try (IngestPipeline pipeline = new IngestPipeline(this, threads, batchSize,
+                    roadNodes)) {
+                MapDBHandler maphandler = new MapDBHandler(pipeline);
+                saxParser.parse(inputFile, maphandler);
+            }
+            return true;
         } catch (ParserConfigurationException | SAXException | IOException e) {
             e.printStackTrace();
+            return false;
         }
-        clean();
-
-    }
-
-    public LinkedList<Edge>[] getAdjLists() {
-        return adjLists;
     }
 
-    public HashMap<Point, Integer> getVertexAddress() {
-        return vertexAddress;
+    /** Builds the graph, its vertex index and the name index from what was parsed. */
+    private CompactGraph buildIndexes() {
+        clean();
+        CompactGraph parsedGraph = graphBuilder.build();
+        this.graph = parsedGraph;
+        this.vertexIndex = new KdTree(parsedGraph);
+        this.nameIndex = nameIndexBuilder.build();
+        return parsedGraph;
     }
 
-    public HashMap<String, LinkedList<Map<String, Object>>> getSearch() {
-        return search;
+    public RoadGraph getGraph() {
+        return graph;
     }
 
-    public DictionaryBasedTrie getTrieAgain() {
-        return trieAgain;
+    /** The index of location names, for autocompletion and location search. */
+    public NameIndex getNameIndex() {
+        return nameIndex;
     }
 
     /**
@@ -85,35 +145,43 @@ public class GraphDB {
     private void clean() {
     }
 
-    public void addEdge(Point from, Point to, double distance) {
-        adjLists[vertexAddress.get(from)].add(new Edge(from, to, distance));
-        adjLists[vertexAddress.get(to)].add(new Edge(to, from, distance));
+    /**
+     * Returns the id of the road vertex closest to the given coordinates, or -1 if the graph
+     * is empty.
+     */
+    public int nearestVertex(double lat, double lon) {
+        return vertexIndex.nearest(lat, lon);
     }
 
-    public boolean isAdjacent(Point from, Point to) {
-        //precondition: point from is connected (has at least one adjacent node)
-        int index = 0;
-        while (index < adjLists[vertexAddress.get(from)].size()) {
-            if (adjLists[vertexAddress.get(from)].get(index).to().equals(to)) return true;
-        }
-        return false;
+    /**
+     * Returns the ids of the (at most) k road vertices closest to the given coordinates,
+     * closest first.
+     */
+    public int[] nearestVertices(double lat, double lon, int k) {
+        return vertexIndex.nearest(lat, lon, k);
     }
 
-    public List neighbors(Point vertex) {
-        List<Point> vertices = new ArrayList<>();
-        int index = 0;
-        while (index < this.adjLists[this.vertexAddress.get(vertex)].size()) {
-            vertices.add(this.adjLists[this.vertexAddress.get(vertex)].get(index).to());
-            index++;
-        }
-        return vertices;
+    /**
+     * Adds a named node to the name index.
+     * While parsing, this is called from the ingest pipeline's name thread, in file order.
+     * @param name The node's name as it appears in the OSM file.
+     */
+    void addLocation(String name, double lat, double lon, long id) {
+        nameIndexBuilder.add(name, lat, lon, id);
     }
 
-    public int inDegree(Point vertex) {
-        return adjLists[vertexAddress.get(vertex)].size();
+    /**
+     * Adds a road vertex while parsing, returning its graph id. Adding the same OSM node
+     * twice returns the same id.
+     */
+    int addVertex(long id, double lat, double lon) {
+        return graphBuilder.addVertex(id, lat, lon);
     }
 
-
-
-
+    /**
+     * Adds an undirected road segment between two vertices while parsing.
+     */
+    void addEdge(int from, int to, double distance) {
+        graphBuilder.addEdge(from, to, distance);
+    }
 }
@@ -0,0 +1,165 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of everything GraphDB derives from the OSM file, so that later server starts
+ * can skip XML parsing. The file is a fixed header followed by the payload:
+ * <pre>
+ *     header:  magic, format version, OSM file length and modification time,
+ *              payload length, CRC-32 of the payload
+ *     payload: the CompactGraph arrays (see CompactGraph#write), the vertex order of the
+ *              KdTree, then the length and bytes of the NameIndex of the named nodes
+ * </pre>
+ * Snapshots are read through a read-only memory mapping. A snapshot is rejected, and the OSM
+ * file parsed again, if its magic, version, checksum or recorded OSM file length or
+ * modification time do not match. The graph and tree are either copied to the heap or, for
+ * the mapped graph store, used in place (see {@link MappedGraph}). The name index is always
+ * used in place, so loading it costs nothing however many names there are.
+ */
+public class GraphSnapshot {
+    /** Suffix appended to the OSM file path to name its snapshot. */
+    public static final String SUFFIX = ".snapshot";
+
+    private static final int MAGIC = 0x424d4150; // "BMAP"
+    private static final int VERSION = 4;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8 + 8;
+
+    private final RoadGraph graph;
+    private final KdTree vertexIndex;
+    private final NameIndex nameIndex;
+
+    private GraphSnapshot(RoadGraph graph, KdTree vertexIndex, NameIndex nameIndex) {
+        this.graph = graph;
+        this.vertexIndex = vertexIndex;
+        this.nameIndex = nameIndex;
+    }
+
+    public RoadGraph graph() {
+        return graph;
+    }
+
+    public KdTree vertexIndex() {
+        return vertexIndex;
+    }
+
+    public NameIndex nameIndex() {
+        return nameIndex;
+    }
+
+    /**
+     * Loads the snapshot of source.
+     * @param mapped Whether to use the graph and tree in place in the mapped file, rather than
+     *               copying them onto the heap.
+     * @return the loaded snapshot, or null if there is no usable snapshot.
+     */
+    static GraphSnapshot read(File snapshot, File source, boolean mapped) {
+        if (!snapshot.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (!isCurrent(buffer, source)) {
+                return null;
+            }
+            buffer.position(HEADER_BYTES);
+            RoadGraph graph;
+            KdTree vertexIndex;
+            if (mapped) {
+                graph = new MappedGraph(buffer);
+                vertexIndex = new KdTree(graph, MappedGraph.section(buffer,
+                        4 * graph.vertexCount()).asIntBuffer());
+            } else {
+                graph = CompactGraph.read(buffer);
+                int[] order = new int[graph.vertexCount()];
+                buffer.asIntBuffer().get(order);
+                buffer.position(buffer.position() + 4 * order.length);
+                vertexIndex = new KdTree(graph, IntBuffer.wrap(order));
+            }
+            return new GraphSnapshot(graph, vertexIndex, NameIndex.read(buffer));
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Checks the header of a mapped snapshot against the source file and the payload checksum.
+     * The source may be missing, e.g. on replicas deployed with only the snapshot, in which case
+     * the snapshot is trusted as long as it is intact.
+     */
+    static boolean isCurrent(ByteBuffer buffer, File source) {
+        if (buffer.limit() < HEADER_BYTES) {
+            return false;
+        }
+        buffer.position(0);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return false;
+        }
+        long sourceLength = buffer.getLong();
+        long sourceModified = buffer.getLong();
+        if (source.isFile()
+                && (source.length() != sourceLength || source.lastModified() != sourceModified)) {
+            return false;
+        }
+        long payloadLength = buffer.getLong();
+        long checksum = buffer.getLong();
+        if (payloadLength != buffer.limit() - HEADER_BYTES) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer);
+        return crc.getValue() == checksum;
+    }
+
+    /**
+     * Writes a snapshot of the graph, its spatial index and the name index parsed from source.
+     * The snapshot is written to a temporary file and moved into place, so readers never see a
+     * partial file.
+     * Failures are reported but not fatal: the server simply parses the OSM file next time.
+     */
+    static void write(File snapshot, File source, CompactGraph graph, KdTree vertexIndex,
+                      NameIndex nameIndex) {
+        File temp = new File(snapshot.getPath() + ".tmp");
+        try {
+            CRC32 crc = new CRC32();
+            try (FileOutputStream file = new FileOutputStream(temp)) {
+                file.write(new byte[HEADER_BYTES]);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new CheckedOutputStream(file, crc)));
+                graph.write(out);
+                vertexIndex.writeOrder(out);
+                nameIndex.write(out);
+                out.flush();
+            }
+            long payloadLength = temp.length() - HEADER_BYTES;
+            try (RandomAccessFile header = new RandomAccessFile(temp, "rw")) {
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.writeLong(source.length());
+                header.writeLong(source.lastModified());
+                header.writeLong(payloadLength);
+                header.writeLong(crc.getValue());
+            }
+            Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+        }
+    }
+}
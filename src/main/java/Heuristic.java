@@ -0,0 +1,8 @@
+/**
+ * A lower bound on the shortest path distance between two vertices, used by A* to order its
+ * search. Implementations must never overestimate and should be consistent, i.e. satisfy
+ * estimate(u, t) &lt;= weight(u, v) + estimate(v, t) for every edge (u, v).
+ */
+public interface Heuristic {
+    double estimate(int v, int target);
+}
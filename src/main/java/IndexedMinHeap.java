@@ -0,0 +1,128 @@
+import java.util.Arrays;
+
+/**
+ * Binary min-heap over the int ids [0, capacity), keyed by double priorities, with O(log n)
+ * decrease-key. Each id is in the heap at most once; its heap slot is tracked in a position
+ * array so that membership tests are O(1). The heap is meant to be reused: clear() only touches
+ * the ids still queued, and no operation allocates.
+ */
+public class IndexedMinHeap {
+    private final int[] heap;
+    private final double[] keys;
+    private final int[] position;
+    private int size;
+
+    public IndexedMinHeap(int capacity) {
+        this.heap = new int[capacity];
+        this.keys = new double[capacity];
+        this.position = new int[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int id) {
+        return position[id] >= 0;
+    }
+
+    /** Removes every id still in the heap. */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /**
+     * Inserts id with the given key, or lowers its key if it is already queued with a larger
+     * one. Returns false if id was already queued with a key no larger than the given key.
+     */
+    public boolean insertOrDecrease(int id, double key) {
+        int i = position[id];
+        if (i < 0) {
+            i = size++;
+            heap[i] = id;
+            keys[i] = key;
+            position[id] = i;
+        } else if (key < keys[i]) {
+            keys[i] = key;
+        } else {
+            return false;
+        }
+        siftUp(i);
+        return true;
+    }
+
+    /** Returns the smallest key in the heap. The heap must not be empty. */
+    public double peekKey() {
+        return keys[0];
+    }
+
+    /** Returns the id with the smallest key without removing it. The heap must not be empty. */
+    public int peek() {
+        return heap[0];
+    }
+
+    /** Removes and returns the id with the smallest key. The heap must not be empty. */
+    public int poll() {
+        int top = heap[0];
+        position[top] = -1;
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            keys[0] = keys[size];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    private void siftUp(int i) {
+        int id = heap[i];
+        double key = keys[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        heap[i] = id;
+        keys[i] = key;
+        position[id] = i;
+    }
+
+    private void siftDown(int i) {
+        int id = heap[i];
+        double key = keys[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && keys[right] < keys[child]) {
+                child = right;
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        heap[i] = id;
+        keys[i] = key;
+        position[id] = i;
+    }
+
+    private void move(int from, int to) {
+        heap[to] = heap[from];
+        keys[to] = keys[from];
+        position[heap[to]] = to;
+    }
+}
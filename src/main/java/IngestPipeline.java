@@ -0,0 +1,388 @@
+import org.xml.sax.SAXException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multi-threaded back end of OSM ingest. {@link MapDBHandler}, on the SAX thread, only copies
+ * the node, way and tag records it reads into compact batches; each full batch is handed to a
+ * pool of worker threads that do the actual work:
+ * <ul>
+ *     <li>node batches parse coordinates into primitive arrays;</li>
+ *     <li>way batches drop ways that are not allowed highways, look up the coordinates of
+ *     their nodes and compute the length of every road segment;</li>
+ *     <li>named nodes are cleaned and indexed for search on a thread of their own.</li>
+ * </ul>
+ * Finished batches are merged into GraphDB strictly in file order, so vertex ids, and
+ * therefore routes, are the same as with a sequential parse. The coordinates of every node are
+ * held in a primitive table (see {@link LongIndex}) only until the last way has been resolved;
+ * after that the graph retains just the nodes that lie on allowed roads.
+ * <p>
+ * In two-pass mode the ids of the nodes on allowed roads are first collected by a
+ * {@link RoadNodeScanner}, and node batches drop every other node as they are processed, so
+ * coordinates are only ever held for road nodes. This trades a second read of the file for a
+ * much lower peak heap.
+ * <p>
+ * As in any OSM file, nodes are expected to come before the ways that reference them. Way
+ * nodes that are missing from the file are skipped, splitting the way in two.
+ */
+class IngestPipeline implements AutoCloseable {
+    /** System property setting the number of worker threads; defaults to one per core. */
+    static final String THREADS_PROPERTY = "bearmaps.ingest.threads";
+    /** System property selecting the ingest mode: "single" (default) or "twopass". */
+    static final String MODE_PROPERTY = "bearmaps.ingest";
+
+    /** Records per batch: nodes, or way node references. */
+    static final int BATCH_SIZE = 8192;
+    /** Batches in flight per worker before the reader waits for the oldest to be merged. */
+    private static final int BATCHES_PER_WORKER = 4;
+
+    private final GraphDB g;
+    private final int batchSize;
+    private final ExecutorService workers;
+    private final ExecutorService names;
+    private final int maxPending;
+    /** Submitted batches, oldest first. */
+    private final ArrayDeque<Future<Batch>> pending = new ArrayDeque<>();
+    private final List<Future<?>> nameTasks = new ArrayList<>();
+
+    private NodeBatch nodeBatch;
+    private WayBatch wayBatch;
+    /** Ids of the nodes on allowed roads, or null to keep every node until the ways. */
+    private final LongIndex roadNodes;
+    /** Coordinates of the nodes read so far; null once all ways have been resolved. */
+    private NodeTable nodes;
+    /** Set at the first way, after which the node table is read-only and shared by workers. */
+    private boolean nodesSealed;
+
+    /**
+     * @param roadNodes The nodes on allowed roads, as found by a {@link RoadNodeScanner}, or
+     *                  null for single-pass ingest.
+     */
+    IngestPipeline(GraphDB g, int threads, int batchSize, LongIndex roadNodes) {
+        this.g = g;
+        this.batchSize = batchSize;
+        this.roadNodes = roadNodes;
+        this.nodes = roadNodes == null ? new NodeTable(batchSize) : new NodeTable(roadNodes);
+        this.nodeBatch = new NodeBatch();
+        this.wayBatch = new WayBatch();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads));
+        this.names = Executors.newSingleThreadExecutor();
+        this.maxPending = Math.max(1, threads) * BATCHES_PER_WORKER;
+    }
+
+    static int defaultThreads() {
+        return Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+    }
+
+    static boolean twoPass() {
+        return "twopass".equalsIgnoreCase(System.getProperty(MODE_PROPERTY, "single"));
+    }
+
+    void node(long id, String lat, String lon) throws SAXException {
+        if (nodeBatch.size == batchSize) {
+            submit(nodeBatch);
+            nodeBatch = new NodeBatch();
+        }
+        nodeBatch.add(id, lat, lon);
+    }
+
+    /** Names the node most recently passed to {@link #node}. */
+    void nodeName(String name) {
+        nodeBatch.name(name);
+    }
+
+    void way() throws SAXException {
+        if (!nodesSealed) {
+            submit(nodeBatch);
+            nodeBatch = new NodeBatch();
+            drain(0);
+            nodesSealed = true;
+        }
+        if (wayBatch.refCount >= batchSize) {
+            submit(wayBatch);
+            wayBatch = new WayBatch();
+        }
+        wayBatch.startWay();
+    }
+
+    /** Adds a node reference to the way most recently started by {@link #way}. */
+    void wayNode(long ref) {
+        wayBatch.addRef(ref);
+    }
+
+    /** Records the highway tag of the way most recently started by {@link #way}. */
+    void wayHighway(String value) {
+        wayBatch.highway[wayBatch.wayCount - 1] = value;
+    }
+
+    /**
+     * Processes and merges everything still in flight, then waits for the name index.
+     */
+    void finish() throws SAXException {
+        submit(nodeBatch);
+        submit(wayBatch);
+        drain(0);
+        nodes = null;
+        try {
+            for (Future<?> task : nameTasks) {
+                task.get();
+            }
+        } catch (ExecutionException e) {
+            throw new SAXException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SAXException(e);
+        }
+    }
+
+    /**
+     * Stops the threads, and waits for any batch or names still being processed: after a
+     * parse error, nothing may be added to the name index once ingest has returned.
+     */
+    @Override
+    public void close() {
+        workers.shutdownNow();
+        names.shutdownNow();
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            names.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(Batch batch) throws SAXException {
+        pending.add(workers.submit(() -> {
+            batch.process();
+            return batch;
+        }));
+        drain(maxPending);
+    }
+
+    /**
+     * Merges finished batches in submission order, waiting for the oldest ones until at most
+     * limit batches are left in flight.
+     */
+    private void drain(int limit) throws SAXException {
+        try {
+            while (!pending.isEmpty() && (pending.size() > limit || pending.peek().isDone())) {
+                pending.poll().get().merge();
+            }
+        } catch (ExecutionException e) {
+            throw new SAXException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SAXException(e);
+        }
+    }
+
+    private abstract static class Batch {
+        /** Runs on a worker thread. */
+        abstract void process();
+
+        /** Runs on the reader thread, in file order. */
+        abstract void merge();
+    }
+
+    /** Node records, with coordinates still as text until processed. */
+    private final class NodeBatch extends Batch {
+        private final long[] ids = new long[batchSize];
+        private final String[] latText = new String[batchSize];
+        private final String[] lonText = new String[batchSize];
+        private final double[] lat = new double[batchSize];
+        private final double[] lon = new double[batchSize];
+        /** Whether each node lies on an allowed road; all true in single-pass mode. */
+        private final boolean[] onRoad = new boolean[batchSize];
+        private int size;
+        private final List<String> nodeNames = new ArrayList<>();
+        private int[] namedNodes = new int[16];
+
+        void add(long id, String latValue, String lonValue) {
+            ids[size] = id;
+            latText[size] = latValue;
+            lonText[size] = lonValue;
+            size++;
+        }
+
+        void name(String name) {
+            if (nodeNames.size() == namedNodes.length) {
+                namedNodes = Arrays.copyOf(namedNodes, 2 * namedNodes.length);
+            }
+            namedNodes[nodeNames.size()] = size - 1;
+            nodeNames.add(name);
+        }
+
+        @Override
+        void process() {
+            for (int i = 0; i < size; i++) {
+                lat[i] = Double.parseDouble(latText[i]);
+                lon[i] = Double.parseDouble(lonText[i]);
+                onRoad[i] = roadNodes == null || roadNodes.indexOf(ids[i]) >= 0;
+                latText[i] = null;
+                lonText[i] = null;
+            }
+        }
+
+        @Override
+        void merge() {
+            if (!nodesSealed) {
+                for (int i = 0; i < size; i++) {
+                    if (onRoad[i]) {
+                        nodes.put(ids[i], lat[i], lon[i]);
+                    }
+                }
+            }
+            if (!nodeNames.isEmpty()) {
+                nameTasks.add(names.submit(() -> {
+                    for (int i = 0; i < nodeNames.size(); i++) {
+                        int n = namedNodes[i];
+                        g.addLocation(nodeNames.get(i), lat[n], lon[n], ids[n]);
+                    }
+                }));
+            }
+        }
+    }
+
+    /**
+     * Way records: node references and highway tags in, the vertices and segment lengths of
+     * allowed roads out.
+     */
+    private final class WayBatch extends Batch {
+        private long[] refs = new long[batchSize];
+        private int refCount;
+        /** The refs of way w are refs[wayStart[w]] up to the start of the next way. */
+        private int[] wayStart = new int[256];
+        private String[] highway = new String[256];
+        private int wayCount;
+
+        /** Vertices of allowed roads, in way order. */
+        private long[] vertexIds;
+        private double[] vertexLat;
+        private double[] vertexLon;
+        /** Length of the segment ending at each vertex, or NaN at the start of a road. */
+        private double[] segment;
+        private int vertexCount;
+
+        void startWay() {
+            if (wayCount == wayStart.length) {
+                wayStart = Arrays.copyOf(wayStart, 2 * wayCount);
+                highway = Arrays.copyOf(highway, 2 * wayCount);
+            }
+            wayStart[wayCount++] = refCount;
+        }
+
+        void addRef(long ref) {
+            if (refCount == refs.length) {
+                refs = Arrays.copyOf(refs, 2 * refCount);
+            }
+            refs[refCount++] = ref;
+        }
+
+        @Override
+        void process() {
+            vertexIds = new long[refCount];
+            vertexLat = new double[refCount];
+            vertexLon = new double[refCount];
+            segment = new double[refCount];
+            for (int w = 0; w < wayCount; w++) {
+                if (!MapDBHandler.ALLOWED_HIGHWAY_TYPES.contains(highway[w])) {
+                    continue;
+                }
+                int end = w + 1 < wayCount ? wayStart[w + 1] : refCount;
+                boolean roadStart = true;
+                for (int i = wayStart[w]; i < end; i++) {
+                    int slot = nodes.indexOf(refs[i]);
+                    if (slot < 0) {
+                        roadStart = true;
+                        continue;
+                    }
+                    double lat = nodes.lat(slot);
+                    double lon = nodes.lon(slot);
+                    if (roadStart) {
+                        segment[vertexCount] = Double.NaN;
+                    } else {
+                        double dLat = lat - vertexLat[vertexCount - 1];
+                        double dLon = lon - vertexLon[vertexCount - 1];
+                        segment[vertexCount] = Math.sqrt(dLat * dLat + dLon * dLon);
+                    }
+                    vertexIds[vertexCount] = refs[i];
+                    vertexLat[vertexCount] = lat;
+                    vertexLon[vertexCount] = lon;
+                    vertexCount++;
+                    roadStart = false;
+                }
+            }
+            refs = null;
+        }
+
+        @Override
+        void merge() {
+            int last = -1;
+            for (int i = 0; i < vertexCount; i++) {
+                int v = g.addVertex(vertexIds[i], vertexLat[i], vertexLon[i]);
+                if (!Double.isNaN(segment[i])) {
+                    g.addEdge(last, v, segment[i]);
+                }
+                last = v;
+            }
+        }
+    }
+
+    /**
+     * Coordinates of OSM nodes by id, in primitive arrays. In two-pass mode the table reuses
+     * the scanned road node index, so it stores nothing but the coordinates themselves.
+     */
+    private static final class NodeTable {
+        private final LongIndex index;
+        private final boolean fixed;
+        private double[] lat;
+        private double[] lon;
+
+        NodeTable(int expectedSize) {
+            index = new LongIndex(expectedSize);
+            fixed = false;
+            lat = new double[expectedSize];
+            lon = new double[expectedSize];
+        }
+
+        /** A table for exactly the nodes in index, each absent until put. */
+        NodeTable(LongIndex index) {
+            this.index = index;
+            fixed = true;
+            lat = new double[index.size()];
+            lon = new double[index.size()];
+            Arrays.fill(lat, Double.NaN);
+        }
+
+        void put(long id, double latValue, double lonValue) {
+            int slot = fixed ? index.indexOf(id) : index.add(id);
+            if (slot == lat.length) {
+                lat = Arrays.copyOf(lat, 2 * slot);
+                lon = Arrays.copyOf(lon, 2 * slot);
+            }
+            lat[slot] = latValue;
+            lon[slot] = lonValue;
+        }
+
+        int indexOf(long id) {
+            int slot = index.indexOf(id);
+            return slot >= 0 && !Double.isNaN(lat[slot]) ? slot : -1;
+        }
+
+        double lat(int slot) {
+            return lat[slot];
+        }
+
+        double lon(int slot) {
+            return lon[slot];
+        }
+    }
+}
@@ -0,0 +1,257 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+
+/**
+ * A static 2-d tree over the vertices of the road graph, used to snap arbitrary coordinates to
+ * the closest road node without scanning the whole graph. The tree is implicit: it is just an
+ * ordering of the vertex ids, permuted so that the median of every range [lo, hi) sits at its
+ * middle index and splits the range on alternating axes (latitude on even levels, longitude on
+ * odd levels). Coordinates are read from the graph itself, so the tree adds only one int per
+ * vertex and can be stored in, and used straight out of, a graph snapshot.
+ * Distances are euclidean in (lat, lon), as in {@link Point#distance}.
+ */
+public class KdTree {
+    private final RoadGraph graph;
+    private final IntBuffer order;
+
+    /**
+     * Builds the tree over every vertex of graph.
+     */
+    public KdTree(RoadGraph graph) {
+        this.graph = graph;
+        int[] ids = new int[graph.vertexCount()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+        build(ids, 0, ids.length, 0);
+        this.order = IntBuffer.wrap(ids);
+    }
+
+    /**
+     * Wraps an order previously produced for the same graph, e.g. one read from a snapshot.
+     */
+    public KdTree(RoadGraph graph, IntBuffer order) {
+        this.graph = graph;
+        this.order = order;
+    }
+
+    public int size() {
+        return order.limit();
+    }
+
+    /**
+     * Writes the tree's vertex order, one int per vertex, as read back by
+     * {@link #KdTree(RoadGraph, IntBuffer)}.
+     */
+    void writeOrder(DataOutputStream out) throws IOException {
+        for (int i = 0; i < order.limit(); i++) {
+            out.writeInt(order.get(i));
+        }
+    }
+
+    /**
+     * Returns the id of the vertex closest to (lat, lon), or -1 if the tree is empty.
+     */
+    public int nearest(double lat, double lon) {
+        if (size() == 0) {
+            return -1;
+        }
+        Best best = new Best();
+        nearest(0, size(), 0, lat, lon, best);
+        return best.id;
+    }
+
+    /**
+     * Returns the ids of the (at most) k vertices closest to (lat, lon), closest first.
+     */
+    public int[] nearest(double lat, double lon, int k) {
+        k = Math.min(k, size());
+        if (k <= 0) {
+            return new int[0];
+        }
+        BoundedHeap heap = new BoundedHeap(k);
+        nearest(0, size(), 0, lat, lon, heap);
+        return heap.drainClosestFirst();
+    }
+
+    private double key(int v, int axis) {
+        return axis == 0 ? graph.lat(v) : graph.lon(v);
+    }
+
+    private void build(int[] ids, int lo, int hi, int axis) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(ids, lo, hi - 1, mid, axis);
+        build(ids, lo, mid, axis ^ 1);
+        build(ids, mid + 1, hi, axis ^ 1);
+    }
+
+    /** Quickselect: places the k-th smallest vertex (by axis) of ids[lo..hi] at index k. */
+    private void select(int[] ids, int lo, int hi, int k, int axis) {
+        while (hi > lo) {
+            double pivot = key(ids[(lo + hi) >>> 1], axis);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (key(ids[i], axis) < pivot) {
+                    i++;
+                }
+                while (key(ids[j], axis) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int t = ids[i];
+                    ids[i] = ids[j];
+                    ids[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void nearest(int lo, int hi, int axis, double lat, double lon, Best best) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int v = order.get(mid);
+        double dLat = graph.lat(v) - lat;
+        double dLon = graph.lon(v) - lon;
+        double d2 = dLat * dLat + dLon * dLon;
+        if (d2 < best.dist2) {
+            best.dist2 = d2;
+            best.id = v;
+        }
+        double diff = axis == 0 ? -dLat : -dLon;
+        if (diff < 0) {
+            nearest(lo, mid, axis ^ 1, lat, lon, best);
+            if (diff * diff < best.dist2) {
+                nearest(mid + 1, hi, axis ^ 1, lat, lon, best);
+            }
+        } else {
+            nearest(mid + 1, hi, axis ^ 1, lat, lon, best);
+            if (diff * diff < best.dist2) {
+                nearest(lo, mid, axis ^ 1, lat, lon, best);
+            }
+        }
+    }
+
+    private void nearest(int lo, int hi, int axis, double lat, double lon, BoundedHeap heap) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int v = order.get(mid);
+        double dLat = graph.lat(v) - lat;
+        double dLon = graph.lon(v) - lon;
+        heap.offer(v, dLat * dLat + dLon * dLon);
+        double diff = axis == 0 ? -dLat : -dLon;
+        if (diff < 0) {
+            nearest(lo, mid, axis ^ 1, lat, lon, heap);
+            if (diff * diff < heap.bound()) {
+                nearest(mid + 1, hi, axis ^ 1, lat, lon, heap);
+            }
+        } else {
+            nearest(mid + 1, hi, axis ^ 1, lat, lon, heap);
+            if (diff * diff < heap.bound()) {
+                nearest(lo, mid, axis ^ 1, lat, lon, heap);
+            }
+        }
+    }
+
+    /** Closest vertex seen so far during a single nearest-neighbor query. */
+    private static class Best {
+        private int id = -1;
+        private double dist2 = Double.POSITIVE_INFINITY;
+    }
+
+    /** Max-heap on squared distance holding the k closest vertices seen so far. */
+    private static class BoundedHeap {
+        private final int[] ids;
+        private final double[] dist2;
+        private int size;
+
+        BoundedHeap(int k) {
+            ids = new int[k];
+            dist2 = new double[k];
+        }
+
+        double bound() {
+            return size < ids.length ? Double.POSITIVE_INFINITY : dist2[0];
+        }
+
+        void offer(int id, double d2) {
+            if (size < ids.length) {
+                ids[size] = id;
+                dist2[size] = d2;
+                siftUp(size++);
+            } else if (d2 < dist2[0]) {
+                ids[0] = id;
+                dist2[0] = d2;
+                siftDown(0);
+            }
+        }
+
+        int[] drainClosestFirst() {
+            int[] result = new int[size];
+            for (int i = size - 1; i >= 0; i--) {
+                result[i] = ids[0];
+                size--;
+                ids[0] = ids[size];
+                dist2[0] = dist2[size];
+                siftDown(0);
+            }
+            return result;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (dist2[parent] >= dist2[i]) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int largest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && dist2[left] > dist2[largest]) {
+                    largest = left;
+                }
+                if (right < size && dist2[right] > dist2[largest]) {
+                    largest = right;
+                }
+                if (largest == i) {
+                    return;
+                }
+                swap(i, largest);
+                i = largest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int tid = ids[i];
+            ids[i] = ids[j];
+            ids[j] = tid;
+            double td = dist2[i];
+            dist2[i] = dist2[j];
+            dist2[j] = td;
+        }
+    }
+}
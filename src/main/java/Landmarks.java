@@ -0,0 +1,116 @@
+import java.util.Arrays;
+
+/**
+ * ALT (A*, landmarks, triangle inequality) lower bounds. A handful of landmark vertices are
+ * picked at startup and the shortest path distance from each landmark to every vertex is
+ * precomputed. By the triangle inequality |d(L, t) - d(L, v)| &lt;= d(v, t) for any landmark L,
+ * so the largest such difference is an admissible A* heuristic; unlike the straight-line
+ * distance it accounts for detours the roads force, e.g. in the hills.
+ * <p>
+ * Roads are two-way, so one table per landmark serves as both its "from" and "to" distances.
+ * Distances are stored as floats, vertex-major, so that evaluating one vertex reads a single
+ * contiguous run of the table; a small slack absorbs float rounding so bounds stay admissible.
+ */
+public class Landmarks implements Heuristic {
+    private final RoadGraph graph;
+    private final int[] landmarks;
+    /** distances[v * landmarks.length + i] is d(landmark i, v), or infinity if unreachable. */
+    private final float[] distances;
+    private final double slack;
+
+    /**
+     * Picks count landmarks by farthest-point selection: each new landmark is the vertex whose
+     * distance to the closest landmark chosen so far is largest, which spreads them toward the
+     * edges of the map where they give the tightest bounds.
+     */
+    public Landmarks(RoadGraph graph, int count) {
+        int n = graph.vertexCount();
+        count = Math.max(0, Math.min(count, n));
+        this.graph = graph;
+        this.landmarks = new int[count];
+        this.distances = new float[n * count];
+        double[] dist = new double[n];
+        double[] closest = new double[n];
+        Arrays.fill(closest, Double.POSITIVE_INFINITY);
+        IndexedMinHeap fringe = new IndexedMinHeap(n);
+        double maxDistance = 0;
+        if (count > 0) {
+            shortestDistances(0, dist, fringe);
+            landmarks[0] = farthest(dist);
+        }
+        for (int i = 0; i < count; i++) {
+            shortestDistances(landmarks[i], dist, fringe);
+            for (int v = 0; v < n; v++) {
+                distances[v * count + i] = (float) dist[v];
+                if (dist[v] < Double.POSITIVE_INFINITY) {
+                    maxDistance = Math.max(maxDistance, dist[v]);
+                    closest[v] = Math.min(closest[v], dist[v]);
+                }
+            }
+            if (i + 1 < count) {
+                landmarks[i + 1] = farthest(closest);
+            }
+        }
+        this.slack = 2 * Math.ulp((float) maxDistance);
+    }
+
+    public int count() {
+        return landmarks.length;
+    }
+
+    public int landmark(int i) {
+        return landmarks[i];
+    }
+
+    /**
+     * Returns the best of the landmark bounds and the straight-line distance between v and
+     * target. Landmarks that cannot reach both vertices give no bound and are skipped.
+     */
+    @Override
+    public double estimate(int v, int target) {
+        int count = landmarks.length;
+        int vBase = v * count;
+        int tBase = target * count;
+        double best = 0;
+        for (int i = 0; i < count; i++) {
+            float dv = distances[vBase + i];
+            float dt = distances[tBase + i];
+            if (dv == Float.POSITIVE_INFINITY || dt == Float.POSITIVE_INFINITY) {
+                continue;
+            }
+            best = Math.max(best, Math.abs(dt - dv));
+        }
+        return Math.max(best - slack, graph.distance(v, target));
+    }
+
+    /** Returns the vertex with the largest finite value in dist. */
+    private static int farthest(double[] dist) {
+        int best = 0;
+        for (int v = 1; v < dist.length; v++) {
+            if (dist[v] < Double.POSITIVE_INFINITY
+                    && (dist[best] == Double.POSITIVE_INFINITY || dist[v] > dist[best])) {
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    /** Single-source Dijkstra over the whole graph. */
+    private void shortestDistances(int source, double[] dist, IndexedMinHeap fringe) {
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        fringe.clear();
+        dist[source] = 0;
+        fringe.insertOrDecrease(source, 0);
+        while (!fringe.isEmpty()) {
+            int u = fringe.poll();
+            for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                int w = graph.target(e);
+                double d = dist[u] + graph.weight(e);
+                if (d < dist[w]) {
+                    dist[w] = d;
+                    fringe.insertOrDecrease(w, d);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import java.util.Arrays;
+
+/**
+ * Assigns dense int ids, in insertion order, to long keys such as OSM node ids. This is an
+ * open-addressing hash table over primitive arrays: a key costs about 16 bytes, against the
+ * roughly 80 bytes of a boxed HashMap entry, and lookups allocate nothing.
+ */
+public class LongIndex {
+    /** Id + 1 of the key hashed to each slot, or 0 if the slot is empty. */
+    private int[] table;
+    /** Keys by id. */
+    private long[] keys;
+    private int size;
+
+    public LongIndex() {
+        this(16);
+    }
+
+    public LongIndex(int expectedSize) {
+        table = new int[tableSizeFor(expectedSize)];
+        keys = new long[Math.max(expectedSize, 16)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long key(int id) {
+        return keys[id];
+    }
+
+    /**
+     * Returns the id of key, or -1 if it has not been added.
+     */
+    public int indexOf(long key) {
+        int mask = table.length - 1;
+        for (int slot = hash(key) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[table[slot] - 1] == key) {
+                return table[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the id of key, first assigning it the next id if it has not been added.
+     */
+    public int add(long key) {
+        int mask = table.length - 1;
+        int slot = hash(key) & mask;
+        for (; table[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[table[slot] - 1] == key) {
+                return table[slot] - 1;
+            }
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        keys[size] = key;
+        table[slot] = ++size;
+        if (2 * size > table.length) {
+            rehash(table.length * 2);
+        }
+        return size - 1;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hash(keys[id]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        return Integer.highestOneBit(Math.max(2 * expectedSize, 16) - 1) << 1;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -6,7 +6,8 @@ import java.util.*;
 
 /**
  *  Parses OSM XML files using an XML SAX parser. Used to construct the graph of roads for
- *  pathfinding, under some constraints.
+ *  pathfinding, under some constraints. The handler itself only reads records off the SAX
+ *  thread; they are turned into the graph and the name index by an {@link IngestPipeline}.
  *  See OSM documentation on
  *  <a href="http://wiki.openstreetmap.org/wiki/Key:highway">the highway tag</a>,
  *  <a href="http://wiki.openstreetmap.org/wiki/Way">the way XML element</a>,
@@ -22,30 +23,15 @@ public class MapDBHandler extends DefaultHandler {
      * roads, but in practice we walk all over them with such impunity that we forget cars can
      * actually drive on them.
      */
-    private static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
+    static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
             ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
                     "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
                     "secondary_link", "tertiary_link"));
     private String activeState = "";
-    private final GraphDB g;
-
-    private HashMap<Long, Point> idPoint;
-    private Point lastPoint;
-    private int currentAddress;
-    private double lat;
-    private double lon;
-    private long id;
-    private LinkedList<Point> tempList;
-    private boolean allowedHighway;
-
-    public MapDBHandler(GraphDB g) {
-        this.g = g;
-        this.idPoint = new HashMap<>();
-        this.lastPoint = null;
-        this.currentAddress = 0;
-        this.tempList = new LinkedList<>();
-        this.allowedHighway = false;
+    private final IngestPipeline pipeline;
 
+    public MapDBHandler(IngestPipeline pipeline) {
+        this.pipeline = pipeline;
     }
 
     /**
@@ -67,52 +53,20 @@ public class MapDBHandler extends DefaultHandler {
             throws SAXException {
         if (qName.equals("node")) {
             activeState = "node";
-            id = Long.parseLong(attributes.getValue("id"));
-            lat = Double.parseDouble(attributes.getValue("lat"));
-            lon = Double.parseDouble(attributes.getValue("lon"));
-            Point node = new Point(lat, lon, id);
-            idPoint.put(id, node);
-        }
-        if (qName.equals("way")) {
+            pipeline.node(Long.parseLong(attributes.getValue("id")), attributes.getValue("lat"),
+                    attributes.getValue("lon"));
+        } else if (qName.equals("way")) {
             activeState = "way";
-            lastPoint = null;
-            tempList = new LinkedList<>();
-            allowedHighway = false;
-        }
-        if (activeState.equals("way") && qName.equals("nd")) {
-            long idT = Long.parseLong(attributes.getValue("ref"));
-            Point curr = idPoint.get(idT);
-            tempList.add(curr);
-        }
-        if (activeState.equals("node") && qName.equals("tag")) {
-            String key = attributes.getValue("k");
-            String value = attributes.getValue("v");
-            if (key.equals("name")) {
-                String name = value;
-                String cleanedName = GraphDB.cleanString(name);
-                // g.autocompleteTrie.add(cleanedName);
-                g.getTrieAgain().addWord(name);
-
-                Map<String, Object> addMap = new HashMap<>();
-                addMap.put("lat", lat);
-                addMap.put("lon", lon);
-                addMap.put("name", name);
-                addMap.put("id", id);
-
-                if (g.getSearch().containsKey(name)) {
-                    g.getSearch().get(name).add(addMap);
-                } else {
-                    LinkedList<Map<String, Object>> addLink = new LinkedList<>();
-                    addLink.add(addMap);
-                    g.getSearch().put(cleanedName, addLink);
-                }
+            pipeline.way();
+        } else if (activeState.equals("way") && qName.equals("nd")) {
+            pipeline.wayNode(Long.parseLong(attributes.getValue("ref")));
+        } else if (activeState.equals("node") && qName.equals("tag")) {
+            if (attributes.getValue("k").equals("name")) {
+                pipeline.nodeName(attributes.getValue("v"));
             }
-        }
-        if (activeState.equals("way") && qName.equals("tag")) {
-            String key = attributes.getValue("k");
-            String value = attributes.getValue("v");
-            if (key.equals("highway") && ALLOWED_HIGHWAY_TYPES.contains(value)) {
-                allowedHighway = true;
+        } else if (activeState.equals("way") && qName.equals("tag")) {
+            if (attributes.getValue("k").equals("highway")) {
+                pipeline.wayHighway(attributes.getValue("v"));
             }
         }
     }
@@ -147,21 +101,18 @@ public class MapDBHandler extends DefaultHandler {
      */
     @Override
     public void endElement(String uri, String localName, String qName) throws SAXException {
-        if (qName.equals("way") && allowedHighway) {
-            Iterator<Point> pointIter = tempList.iterator();
-            while (pointIter.hasNext()) {
-                Point curr = pointIter.next();
-                if (!g.getVertexAddress().containsKey(curr)) {
-                    g.getVertexAddress().put(curr, currentAddress);
-                    currentAddress++;
-                }
-                if (lastPoint == null) {
-                    lastPoint = curr;
-                } else {
-                    g.addEdge(lastPoint, curr, Point.distance(lastPoint, curr));
-                    lastPoint = curr;
-                }
-            }
+        if (qName.equals("node") || qName.equals("way")) {
+            activeState = "";
         }
     }
+
+    /**
+     * Receive notification of the end of the document: flushes the last batches through the
+     * pipeline and waits for them to be merged.
+     * @throws SAXException Any SAX exception, possibly wrapping an exception from a worker.
+     */
+    @Override
+    public void endDocument() throws SAXException {
+        pipeline.finish();
+    }
 }
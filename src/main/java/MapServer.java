@@ -6,14 +6,13 @@ import java.io.*;
 //import java.lang.reflect.Array;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /* Maven is used to pull in these dependencies. */
 import com.google.gson.Gson;
 
 import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.MemoryCacheImageOutputStream;
+import javax.servlet.http.HttpServletResponse;
 
 import static spark.Spark.*;
 
@@ -37,6 +36,10 @@ public class MapServer {
 
     /** HTTP failed response. */
     private static final int HALT_RESPONSE = 403;
+    /** Number of results /search returns when its request sets no limit. */
+    private static final int DEFAULT_SEARCH_LIMIT = 10;
+    /** Most results /search returns, whatever limit its request sets. */
+    private static final int MAX_SEARCH_LIMIT = 100;
 
     /** Route stroke information: typically roads are not more than 5px wide. */
     public static final float ROUTE_STROKE_WIDTH_PX = 5.0f;
@@ -45,7 +48,7 @@ public class MapServer {
     public static final Color ROUTE_STROKE_COLOR = new Color(108, 181, 230, 200);
 
     /** The tile images are in the IMG_ROOT folder. */
-    private static final String IMG_ROOT = "img/";
+    static final String IMG_ROOT = "img/";
 
     /**
      * The OSM XML file path. Downloaded from <a href="http://download.bbbike.org/osm/">here</a>
@@ -53,6 +56,57 @@ public class MapServer {
      **/
     private static final String OSM_DB_PATH = "berkeley.osm";
 
+    /**
+     * System property naming the routing algorithm, e.g. <code>-Dbearmaps.routing=ch</code>.
+     * See {@link RoutingMode} for the choices; plain A* is the default.
+     */
+    private static final String ROUTING_MODE_PROPERTY = "bearmaps.routing";
+
+    /**
+     * System property choosing where the road graph lives: <code>heap</code> (the default) or
+     * <code>mapped</code>, which reads it in place from the memory-mapped graph snapshot.
+     */
+    private static final String GRAPH_STORE_PROPERTY = "bearmaps.graph";
+
+    /**
+     * System property bounding the decoded tile cache, in megabytes of pixel data, e.g.
+     * <code>-Dbearmaps.tilecache.mb=256</code>.
+     */
+    private static final String TILE_CACHE_MB_PROPERTY = "bearmaps.tilecache.mb";
+
+    private static final int DEFAULT_TILE_CACHE_MB = 128;
+
+    /**
+     * System property bounding the cache of encoded raster images, in megabytes, e.g.
+     * <code>-Dbearmaps.rastercache.mb=64</code>.
+     */
+    private static final String RASTER_CACHE_MB_PROPERTY = "bearmaps.rastercache.mb";
+
+    private static final int DEFAULT_RASTER_CACHE_MB = 32;
+
+    /**
+     * System property naming the packed super-tiles built by {@link SuperTiles#main}; by
+     * default <code>img/supertiles.bin</code>. Rasters are composited from the tiles alone
+     * while the file does not exist.
+     */
+    private static final String SUPER_TILES_PROPERTY = "bearmaps.supertiles";
+
+    /**
+     * System property naming the tile archive packed by {@link TileArchive#main}; by default
+     * <code>tiles.pack</code>. Tiles are read from the loose files in img/ while the archive
+     * does not exist.
+     */
+    private static final String TILE_ARCHIVE_PROPERTY = "bearmaps.tilearchive";
+
+    /**
+     * System property setting the threads prefetching tiles after each raster, e.g.
+     * <code>-Dbearmaps.prefetch.threads=2</code>; 0 turns prefetching off.
+     */
+    private static final String PREFETCH_THREADS_PROPERTY = "bearmaps.prefetch.threads";
+
+    /** System property bounding the tiles waiting to be prefetched. */
+    private static final String PREFETCH_QUEUE_PROPERTY = "bearmaps.prefetch.queue";
+
     /**
      * Each raster request to the server will have the following parameters
      * as keys in the params map accessible by,
@@ -80,9 +134,34 @@ public class MapServer {
     //initialize quadtree
     private static QuadTree imgTree;
 
-    private static HashMap<String, BufferedImage> seenImages;
+    /** Decoded tiles, shared by all request threads. */
+    private static TileCache tileCache;
 
-    private static ArrayList<Point> routeToDraw;
+    private static TileCompositor compositor;
+
+    /** Loads likely next tiles into the tile cache, or null if prefetching is off. */
+    private static TilePrefetcher prefetcher;
+
+    /** Pre-rendered super-tiles that rasters are sliced from, or null if none were built. */
+    private static SuperTiles superTiles;
+
+    /** Rasters requested at each depth, telling which depths super-tiles are worth building. */
+    private static final AtomicLongArray DEPTH_COUNTS = new AtomicLongArray(8);
+
+    /** Encoded raster images by tile grid and route, shared by all request threads. */
+    private static RasterCache rasterCache;
+
+    /** Encodes /raster images, in the format and quality the system properties set. */
+    private static RasterEncoder encoder;
+
+    /** Raw tile files, for the /tiles endpoint. */
+    private static TileFiles tileFiles;
+
+    /** Gson instances are thread-safe, so all responses share one. */
+    private static final Gson GSON = new Gson();
+
+    /** Routers keep per-query working state, so each request thread gets its own. */
+    private static ThreadLocal<Router> routers;
 
     /**
      * Place any initialization statements that will be run before the server main loop here.
@@ -90,9 +169,26 @@ public class MapServer {
      * This is for testing purposes, and you may fail tests otherwise.
      **/
     public static void initialize() {
-        g = new GraphDB(OSM_DB_PATH);
+        g = new GraphDB(OSM_DB_PATH,
+                "mapped".equalsIgnoreCase(System.getProperty(GRAPH_STORE_PROPERTY, "heap")));
         imgTree = new QuadTree(ROOT_ULLAT, ROOT_ULLON, ROOT_LRLAT, ROOT_LRLON);
-        seenImages = new HashMap<>();
+        TileArchive tileArchive = TileArchive.open(new File(tileArchivePath()));
+        tileCache = new TileCache(
+                Integer.getInteger(TILE_CACHE_MB_PROPERTY, DEFAULT_TILE_CACHE_MB) * 1024L * 1024L,
+                tileLoader(tileArchive));
+        compositor = new TileCompositor(tileCache, TILE_SIZE);
+        superTiles = SuperTiles.open(new File(superTilesPath()), TILE_SIZE);
+        int prefetchThreads = Integer.getInteger(PREFETCH_THREADS_PROPERTY, 1);
+        prefetcher = prefetchThreads <= 0 ? null : new TilePrefetcher(tileCache,
+                prefetchThreads, Integer.getInteger(PREFETCH_QUEUE_PROPERTY, 64));
+        encoder = RasterEncoder.fromProperties();
+        tileFiles = new TileFiles(IMG_ROOT, tileArchive);
+        rasterCache = new RasterCache(
+                Integer.getInteger(RASTER_CACHE_MB_PROPERTY, DEFAULT_RASTER_CACHE_MB) * 1024L
+                        * 1024L);
+        RoutingMode routingMode = RoutingMode.fromKey(
+                System.getProperty(ROUTING_MODE_PROPERTY, "astar"));
+        routers = ThreadLocal.withInitial(routingMode.prepare(g.getGraph()));
 
     }
 
@@ -114,48 +210,90 @@ public class MapServer {
                     getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
             /* Required to have valid raster params */
             validateRequestParameters(rasterParams, REQUIRED_RASTER_REQUEST_PARAMS);
-            /* The png image is written to the ByteArrayOutputStream */
-            Map<String, Object> rasteredImgParams = new HashMap<>();
-            /* getMapRaster() does almost all the work for this API call */
-            BufferedImage im = getMapRaster(rasterParams, rasteredImgParams);
             /* Check if we have routing parameters. */
             HashMap<String, Double> routeParams =
                     getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            /* If we do, draw the route too. */
-            if (hasRequestParameters(routeParams, REQUIRED_ROUTE_REQUEST_PARAMS)) {
-                findAndDrawRoute(routeParams, rasteredImgParams, im);
+            if (!hasRequestParameters(routeParams, REQUIRED_ROUTE_REQUEST_PARAMS)) {
+                routeParams = null;
             }
-            /* On an image query success, add the image data to the response */
-            if (rasteredImgParams.containsKey("query_success")
-                    && (Boolean) rasteredImgParams.get("query_success")) {
-                ByteArrayOutputStream os = new ByteArrayOutputStream();
-                writeJpgToStream(im, os);
-                String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
-                rasteredImgParams.put("b64_encoded_image_data", encodedImage);
-                os.flush();
-                os.close();
+            String mode = req.queryParams("mode");
+            /* In binary mode the image itself is the response body. */
+            if ("binary".equals(mode)) {
+                streamRaster(rasterParams, routeParams, res.raw());
+                return "";
             }
+            /* In tile mode the client fetches and places the tiles itself. */
+            Map<String, Object> rasteredImgParams = "tiles".equals(mode)
+                    ? tileGridResponse(rasterParams, routeParams)
+                    : rasterResponse(rasterParams, routeParams);
             /* Encode response to Json */
-            Gson gson = new Gson();
-            return gson.toJson(rasteredImgParams);
+            return GSON.toJson(rasteredImgParams);
+        });
+
+        /* Define the endpoint serving single tiles, e.g. /tiles/3/142.png */
+        get("/tiles/:depth/:file", (req, res) -> {
+            if (!tileFiles.serve(req.params(":depth"), req.params(":file"),
+                    req.headers("If-None-Match"), res.raw())) {
+                halt(404, "No such tile.");
+            }
+            return "";
         });
 
         /* Define the API endpoint for search */
         get("/search", (req, res) -> {
             Set<String> reqParams = req.queryParams();
             String term = req.queryParams("term");
-            Gson gson = new Gson();
             /* Search for actual location data. */
             if (reqParams.contains("full")) {
                 List<Map<String, Object>> data = getLocations(term);
-                return gson.toJson(data);
+                return GSON.toJson(data);
+            } else if (reqParams.contains("limit") || reqParams.contains("fuzzy")
+                    || reqParams.contains("words")) {
+                /* Search for the best few prefix matching strings, allowing typos if fuzzy, or
+                 * for names with all the words in any order. */
+                int limit = DEFAULT_SEARCH_LIMIT;
+                int edits = 0;
+                try {
+                    if (reqParams.contains("limit")) {
+                        limit = Integer.parseInt(req.queryParams("limit"));
+                    }
+                    if (reqParams.contains("fuzzy")) {
+                        edits = Integer.parseInt(req.queryParams("fuzzy"));
+                    }
+                } catch (NumberFormatException e) {
+                    halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+                    return null;
+                }
+                if (limit < 1) {
+                    halt(HALT_RESPONSE, "Incorrect parameters - limit must be positive.");
+                    return null;
+                }
+                limit = Math.min(limit, MAX_SEARCH_LIMIT);
+                if (reqParams.contains("words")) {
+                    return GSON.toJson(getLocationsByWords(term, limit));
+                }
+                if (edits > 0) {
+                    return GSON.toJson(getFuzzyLocationsByPrefix(term, edits, limit));
+                }
+                return GSON.toJson(getTopLocationsByPrefix(term, limit));
             } else {
                 /* Search for prefix matching strings. */
                 List<String> matches = getLocationsByPrefix(term);
-                return gson.toJson(matches);
+                return GSON.toJson(matches);
             }
         });
 
+        /* Define the endpoint reporting cache statistics */
+        get("/stats", (req, res) -> {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("tile_cache", tileCacheStats());
+            stats.put("prefetch", prefetchStats());
+            stats.put("raster_cache", rasterCacheStats());
+            stats.put("encoder", encoderStats());
+            stats.put("raster_depths", depthStats());
+            return GSON.toJson(stats);
+        });
+
         /* Define map application redirect */
         get("/", (request, response) -> {
             response.redirect("/map.html", 301);
@@ -163,6 +301,242 @@ public class MapServer {
         });
     }
 
+    /**
+     * Collects the tile cache's counters for the stats endpoint.
+     */
+    static Map<String, Object> tileCacheStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("tiles", tileCache.size());
+        stats.put("bytes", tileCache.weightBytes());
+        stats.put("capacity_bytes", tileCache.capacityBytes());
+        stats.put("hits", tileCache.hitCount());
+        stats.put("misses", tileCache.missCount());
+        stats.put("loads", tileCache.loadCount());
+        stats.put("evictions", tileCache.evictionCount());
+        return stats;
+    }
+
+    /**
+     * Collects the prefetcher's counters for the stats endpoint. The hit rate is the share of
+     * prefetched tiles that a raster went on to use.
+     */
+    static Map<String, Object> prefetchStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", prefetcher != null);
+        stats.put("queued", prefetcher == null ? 0 : prefetcher.queuedCount());
+        stats.put("dropped", prefetcher == null ? 0 : prefetcher.droppedCount());
+        long prefetches = tileCache.prefetchCount();
+        stats.put("loaded", prefetches);
+        stats.put("hits", tileCache.prefetchHitCount());
+        stats.put("wasted", tileCache.prefetchWastedCount());
+        stats.put("hit_rate", prefetches == 0 ? 0
+                : (double) tileCache.prefetchHitCount() / prefetches);
+        return stats;
+    }
+
+    /**
+     * Collects the raster cache's counters for the stats endpoint.
+     */
+    static Map<String, Object> rasterCacheStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("images", rasterCache.size());
+        stats.put("bytes", rasterCache.weightBytes());
+        stats.put("capacity_bytes", rasterCache.capacityBytes());
+        stats.put("hits", rasterCache.hitCount());
+        stats.put("misses", rasterCache.missCount());
+        stats.put("evictions", rasterCache.evictionCount());
+        return stats;
+    }
+
+    /**
+     * Counts the rasters requested at each depth, and whether super-tiles serve it, for the
+     * stats endpoint.
+     */
+    static Map<String, Object> depthStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (int depth = 0; depth < DEPTH_COUNTS.length(); depth++) {
+            Map<String, Object> depthStats = new LinkedHashMap<>();
+            depthStats.put("rasters", DEPTH_COUNTS.get(depth));
+            depthStats.put("super_tile_size", superTiles == null ? 0 : superTiles.size(depth));
+            stats.put(Integer.toString(depth), depthStats);
+        }
+        return stats;
+    }
+
+    /** Returns the path of the tile archive. */
+    static String tileArchivePath() {
+        return System.getProperty(TILE_ARCHIVE_PROPERTY, "tiles.pack");
+    }
+
+    /**
+     * Returns the loader of decoded TYPE_INT_RGB tiles, reading them from archive, or from the
+     * files in img/ if archive is null.
+     */
+    static TileCache.Loader tileLoader(TileArchive archive) {
+        if (archive != null) {
+            return name -> TileCompositor.toIntRgb(archive.read(name));
+        }
+        return name -> TileCompositor.toIntRgb(ImageIO.read(new File(IMG_ROOT + name)));
+    }
+
+    /** Returns the path of the packed super-tiles file. */
+    static String superTilesPath() {
+        return System.getProperty(SUPER_TILES_PROPERTY, IMG_ROOT + "supertiles.bin");
+    }
+
+    /**
+     * Collects the raster encoder's settings and timings for the stats endpoint.
+     */
+    static Map<String, Object> encoderStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long encodes = encoder.encodeCount();
+        stats.put("format", encoder.format());
+        stats.put("quality", encoder.quality());
+        stats.put("encodes", encodes);
+        stats.put("total_ms", encoder.encodeNanos() / 1e6);
+        stats.put("mean_ms", encodes == 0 ? 0 : encoder.encodeNanos() / 1e6 / encodes);
+        stats.put("mean_bytes", encodes == 0 ? 0 : encoder.encodedBytes() / encodes);
+        return stats;
+    }
+
+    /**
+     * Builds the Json response parameters of a /raster call: those of {@link #rasterImage},
+     * plus the image itself, Base64 encoded under "b64_encoded_image_data", with its MIME type
+     * under "image_type".
+     * @param routeParams The route to draw, or null for none.
+     */
+    static Map<String, Object> rasterResponse(Map<String, Double> rasterParams,
+                                              Map<String, Double> routeParams) {
+        Map<String, Object> rasteredImgParams = new HashMap<>();
+        byte[] image = rasterImage(rasterParams, routeParams, rasteredImgParams);
+        rasteredImgParams.put("image_type", encoder.mimeType());
+        rasteredImgParams.put("b64_encoded_image_data",
+                image == null ? "" : Base64.getEncoder().encodeToString(image));
+        return rasteredImgParams;
+    }
+
+    /**
+     * Writes the response of a /raster call in binary mode: the encoded image is the body,
+     * written straight from the raster cache, and the parameters of {@link #rasterImage} are
+     * sent as headers, named as by {@link #rasterHeader}, e.g. X-Raster-Ul-Lon. Unlike the
+     * Json response the image is never copied into Base64, a String, or a Json document.
+     * @param routeParams The route to draw, or null for none.
+     */
+    static void streamRaster(Map<String, Double> rasterParams, Map<String, Double> routeParams,
+                             HttpServletResponse response) throws IOException {
+        Map<String, Object> rasteredImgParams = new HashMap<>();
+        byte[] image = rasterImage(rasterParams, routeParams, rasteredImgParams);
+        if (image == null) {
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return;
+        }
+        StringJoiner exposed = new StringJoiner(", ");
+        for (Map.Entry<String, Object> param : rasteredImgParams.entrySet()) {
+            String header = rasterHeader(param.getKey());
+            response.setHeader(header, String.valueOf(param.getValue()));
+            exposed.add(header);
+        }
+        /* Lets cross-origin scripts read the parameters. */
+        response.setHeader("Access-Control-Expose-Headers", exposed.toString());
+        response.setContentType(encoder.mimeType());
+        response.setContentLength(image.length);
+        response.getOutputStream().write(image);
+    }
+
+    /**
+     * Returns the header carrying a raster response parameter in binary mode: X-Raster-
+     * followed by the parameter's words, capitalized, without any raster_ prefix. For example
+     * raster_ul_lon is sent as X-Raster-Ul-Lon and depth as X-Raster-Depth.
+     */
+    static String rasterHeader(String param) {
+        StringBuilder header = new StringBuilder("X-Raster");
+        String name = param.startsWith("raster_") ? param.substring("raster_".length()) : param;
+        for (String word : name.split("_")) {
+            header.append('-').append(Character.toUpperCase(word.charAt(0)))
+                    .append(word.substring(1));
+        }
+        return header.toString();
+    }
+
+    /**
+     * Rasters the image of a /raster call, putting the parameters of {@link #getMapRaster}
+     * into rasteredImgParams, and returns it with the route drawn on it, encoded by the
+     * {@link RasterEncoder}. Encoded images are cached by tile grid and route, so repeat views
+     * skip compositing, drawing and encoding; when they do not, the encoding time is put under
+     * "encode_ms". The returned array is shared with the cache and must not be modified.
+     * @param routeParams The route to draw, or null for none.
+     * @return The encoded image, or null if it could not be encoded.
+     */
+    static byte[] rasterImage(Map<String, Double> rasterParams, Map<String, Double> routeParams,
+                              Map<String, Object> rasteredImgParams) {
+        String[][] imgFiles = rasterTiles(rasterParams, rasteredImgParams);
+        int[] route = null;
+        if (routeParams != null) {
+            route = findRoute(routeParams, rasteredImgParams);
+        }
+        RasterCache.Key key = new RasterCache.Key(rasteredImgParams, imgFiles[0][0],
+                imgFiles[imgFiles.length - 1][imgFiles[0].length - 1], route);
+        byte[] image = rasterCache.get(key);
+        /* Whether the raster is, or on a cache hit would be, built from the tile cache. */
+        boolean composited = superTiles == null || !superTiles.covers(imgFiles);
+        if (image == null) {
+            BufferedImage im = compositeTiles(imgFiles);
+            if (route != null) {
+                drawRoute(route, rasteredImgParams, im);
+            }
+            try {
+                RasterEncoder.Encoded encoded = encoder.encode(im);
+                image = encoded.toByteArray();
+                rasteredImgParams.put("encode_ms", encoded.millis());
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            rasterCache.put(key, image);
+        }
+        /* Only now, so that prefetching never decodes tiles alongside this raster's own. Sliced
+         * rasters do not read the tile cache, so there is nothing to warm for them; grids the
+         * super-tiles do not cover, such as those off the edge of the map, are warmed. */
+        if (prefetcher != null && composited) {
+            prefetcher.afterRaster(imgFiles);
+        }
+        rasteredImgParams.replace("query_success", true);
+        return image;
+    }
+
+    /**
+     * Builds the Json response parameters of a /raster call in tile mode: those of
+     * {@link #getMapRaster}, plus the URL paths of the tiles under "tile_grid", row by row from
+     * the upper left, for the client to fetch from the /tiles endpoint. Nothing is rastered.
+     * If a route is given, its points are returned as [lon, lat] pairs under "route".
+     * @param routeParams The route to find, or null for none.
+     */
+    static Map<String, Object> tileGridResponse(Map<String, Double> rasterParams,
+                                                Map<String, Double> routeParams) {
+        Map<String, Object> rasteredImgParams = new HashMap<>();
+        String[][] imgFiles = rasterTiles(rasterParams, rasteredImgParams);
+        int depth = (int) rasteredImgParams.get("depth");
+        String[][] tileGrid = new String[imgFiles.length][];
+        for (int i = 0; i < imgFiles.length; i++) {
+            tileGrid[i] = new String[imgFiles[i].length];
+            for (int j = 0; j < imgFiles[i].length; j++) {
+                tileGrid[i][j] = TileFiles.path(depth, imgFiles[i][j]);
+            }
+        }
+        rasteredImgParams.put("tile_grid", tileGrid);
+        if (routeParams != null) {
+            RoadGraph graph = g.getGraph();
+            int[] route = findRoute(routeParams, rasteredImgParams);
+            double[][] points = new double[route.length][];
+            for (int i = 0; i < route.length; i++) {
+                points[i] = new double[]{graph.lon(route[i]), graph.lat(route[i])};
+            }
+            rasteredImgParams.put("route", points);
+        }
+        rasteredImgParams.replace("query_success", true);
+        return rasteredImgParams;
+    }
+
     /**
      * Check if the computed parameter map matches the required parameters on length.
      */
@@ -206,20 +580,18 @@ public class MapServer {
         return params;
     }
 
+    /** JPEG at ImageIO's default quality, as rasters have always been written. */
+    private static final RasterEncoder JPG_ENCODER = new RasterEncoder("jpg", 0.75f);
+
     /**
      * Write a <code>BufferedImage</code> to an <code>OutputStream</code>. The image is written as
-     * a lossy JPG, but with the highest quality possible.
+     * a lossy JPG at ImageIO's default quality, whatever format /raster responses use.
      * @param im Image to be written.
      * @param os Stream to be written to.
      */
     static void writeJpgToStream(BufferedImage im, OutputStream os) {
-        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
-        ImageWriteParam param = writer.getDefaultWriteParam();
-        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-        param.setCompressionQuality(1.0F); // Highest quality of jpg possible
-        writer.setOutput(new MemoryCacheImageOutputStream(os));
         try {
-            writer.write(im);
+            JPG_ENCODER.encode(im).writeTo(os);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -258,6 +630,21 @@ public class MapServer {
      */
     public static BufferedImage getMapRaster(Map<String, Double> inputParams,
                                              Map<String, Object> rasteredImageParams) {
+        String[][] imgFiles = rasterTiles(inputParams, rasteredImageParams);
+        BufferedImage returnImage = compositeTiles(imgFiles);
+        rasteredImageParams.replace("query_success", true);
+        //from http://stackoverflow.com/questions/3922276/
+        // how-to-combine-multiple-pngs-into-one-big-png-file
+        return returnImage;
+    }
+
+    /**
+     * Finds the tiles of a raster, as described in {@link #getMapRaster}, without reading them.
+     * Fills in every response parameter, with "query_success" still false.
+     * @return the names of the tiles, row by row from the upper left.
+     */
+    static String[][] rasterTiles(Map<String, Double> inputParams,
+                                  Map<String, Object> rasteredImageParams) {
         String[][] imgFiles;
 
         double queryULLat = inputParams.get("ullat");
@@ -280,7 +667,7 @@ public class MapServer {
 
 
 
-        if (depth > 7) depth = 7;
+        if (depth > QuadTree.MAX_DEPTH) depth = QuadTree.MAX_DEPTH;
         //is queryW always 256?
 
         Point ulPoint = new Point(queryULLon, queryULLat);
@@ -306,6 +693,7 @@ public class MapServer {
 
         rasteredImageParams.put("depth", depth);
         rasteredImageParams.put("query_success", false);
+        DEPTH_COUNTS.incrementAndGet(depth);
 
         //System.out.println("depth = " + depth);
 
@@ -320,40 +708,16 @@ public class MapServer {
 
         //System.out.println(rasteredImageParams.get("raster_width"));
         //System.out.println(rasteredImageParams.get("raster_height"));
+        return imgFiles;
+    }
 
-        BufferedImage returnImage = new BufferedImage(
-                imgFiles[0].length * 256, imgFiles.length * 256,
-                BufferedImage.TYPE_INT_RGB);
-        Graphics gr = returnImage.getGraphics();
-
-        int x = 0;
-        int y = 0;
-        for (int i = 0; i < imgFiles.length; i++) {
-            for (int j = 0; j < imgFiles[i].length; j++) {
-                try {
-                    if (seenImages.containsKey(imgFiles[i][j])) {
-                        gr.drawImage(seenImages.get(imgFiles[i][j]), x, y, null);
-                    } else {
-                        BufferedImage bi = ImageIO.read(new File(IMG_ROOT + imgFiles[i][j]));
-                        seenImages.put(imgFiles[i][j], bi);
-                        gr.drawImage(bi, x, y, null);
-                    }
-                } catch (java.io.IOException e1) {
-                    System.out.println("Exception thrown reading file" + i + j);
-                }
-                //System.out.println(imgFiles[i][j]);
-                x += 256;
-                if (x >= returnImage.getWidth()) {
-                    x = 0;
-                    y += 256;
-                }
-            }
-        }
-        rasteredImageParams.replace("query_success", true);
-        //from http://stackoverflow.com/questions/3922276/
-        // how-to-combine-multiple-pngs-into-one-big-png-file
-        return returnImage;
-
+    /**
+     * Draws the given grid of tiles side by side into a new image, slicing it from the
+     * super-tiles when they hold every tile of the grid.
+     */
+    static BufferedImage compositeTiles(String[][] imgFiles) {
+        BufferedImage image = superTiles == null ? null : superTiles.composite(imgFiles);
+        return image != null ? image : compositor.composite(imgFiles);
     }
 
     /**
@@ -374,153 +738,67 @@ public class MapServer {
     public static List<Long> findAndDrawRoute(Map<String, Double> routeParams,
                                               Map<String, Object> rasterImageParams,
                                               BufferedImage im) {
-        routeToDraw = new ArrayList<>();
-        double startLat = routeParams.get("start_lat");
-        double startLon = routeParams.get("start_lon");
-        double endLat = routeParams.get("end_lat");
-        double endLon = routeParams.get("end_lon");
-        Point start = new Point(startLat, startLon);
-        Point end = new Point(endLat, endLon);
-        Iterator<Point> pointIter = g.getVertexAddress().keySet().iterator();
-        double startDistance = 999999; double endDistance = 999999;
-        Point bestStart = null; Point bestEnd = null;
-        while (pointIter.hasNext()) {
-            Point curr = pointIter.next();
-            if (Point.distance(start, curr) < startDistance) {
-                bestStart = curr;
-                startDistance = Point.distance(start, bestStart);
-            }
-            if (Point.distance(end, curr) < endDistance) {
-                bestEnd = curr;
-                endDistance = Point.distance(end, bestEnd);
-            }
-        }
-        start = bestStart; end = bestEnd;
-        AStarComparator<Double> distanceComparator = new AStarComparator<>();
-        PriorityQueue<Point> fringe = new PriorityQueue<>(distanceComparator);
-        HashMap<Point, Point> predecessor = new HashMap<>(); //predecessor map, k = curr, v = prev
-        HashSet<Point> visited = new HashSet<>(); //visited set
-        distanceComparator.putHeuristic(start, Point.distance(start, end));
-        distanceComparator.putDistance(start, 0);
-        fringe.add(start);
+        RoadGraph graph = g.getGraph();
+        int[] route = findRoute(routeParams, rasterImageParams);
         ArrayList<Long> returnList = new ArrayList<>();
-        while (!fringe.isEmpty()) {
-            Point node = fringe.poll();
-            if (node.equals(end)) break; //reached the end
-            visited.add(node);
-            for (Object neighbor : g.neighbors(node)) {
-                Point w = (Point) neighbor;
-                if (visited.contains(w)) continue;
-                double predDist = distanceComparator.getDistance(node);
-                double incrDist = 0; int index = 0;
-                while (index < g.getAdjLists()[g.getVertexAddress().get(node)].size()) {
-                    if (g.getAdjLists()[g.getVertexAddress().get(node)].get(index).to().equals(w)) {
-                        incrDist = (Double) g.getAdjLists()[g.getVertexAddress().get(node)]
-                                .get(index).distance();
-                        break;
-                    }
-                    index++;
-                }
-                if (!fringe.contains(w)) {
-                    predecessor.put(w, node);
-                    distanceComparator.putHeuristic(w, predDist + incrDist
-                            + Point.distance(w, end));
-                    distanceComparator.putDistance(w, predDist + incrDist);
-                    fringe.add(w);
-                } else if (predDist + incrDist < distanceComparator.getDistance(w)) {
-                    predecessor.put(w, node);
-                    distanceComparator.putHeuristic(w, predDist + incrDist
-                            + Point.distance(w, end));
-                    distanceComparator.putDistance(w, predDist + incrDist);
-                    fringe.add(w);
-                }
-            }
-        }
-        Point curr = predecessor.get(end);
-        returnList.add(end.getId()); routeToDraw.add(end);
-        while (curr != start) {
-            returnList.add(curr.getId()); routeToDraw.add(curr);
-            curr = predecessor.get(curr);
+        for (int v : route) {
+            returnList.add(graph.osmId(v));
         }
-        routeToDraw.add(curr); returnList.add(curr.getId());
-        Collections.reverse(returnList); Collections.reverse(routeToDraw);
 
         if (im != null) {
-            Stroke stroke = new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
-                    BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
-            Graphics2D gr = (Graphics2D) im.getGraphics();
-            gr.setStroke(stroke);
-            gr.setColor(ROUTE_STROKE_COLOR);
-            double lonDistPerPix = ((Double) rasterImageParams.get("raster_lr_lon")
-                    - (Double) rasterImageParams.get("raster_ul_lon"))
-                    / (int) rasterImageParams.get("raster_width");
-            double latDistPerPix = ((Double) rasterImageParams.get("raster_ul_lat")
-                    - (Double) rasterImageParams.get("raster_lr_lat"))
-                    / (int) rasterImageParams.get("raster_height");
-            for (int i = 0; i + 1 < routeToDraw.size(); i++) {
-                double x1 = (routeToDraw.get(i).getY() - (double)
-                        rasterImageParams.get("raster_ul_lon")) / lonDistPerPix;
-                double y1 = (routeToDraw.get(i).getX() - (double)
-                        rasterImageParams.get("raster_lr_lat")) / latDistPerPix;
-                double x2 = (routeToDraw.get(i + 1).getY() - (double)
-                        rasterImageParams.get("raster_ul_lon")) / lonDistPerPix;
-                double y2 = (routeToDraw.get(i + 1).getX() - (double)
-                        rasterImageParams.get("raster_lr_lat")) / latDistPerPix;
-                gr.drawLine((int) x1, (int) ((int) rasterImageParams.get("raster_height") - y1),
-                        (int) x2, ((int) ((int) rasterImageParams.get("raster_height") - y2)));
-            }
+            drawRoute(route, rasterImageParams, im);
         }
         return returnList;
     }
 
-    /** A helper comparator class
-     *  Used by findAndDrawRoute's A* algorithm
-     */
-    public static class AStarComparator<T> implements Comparator {
-        private HashMap<Point, Double> comparatorHeuristicMap = new HashMap<>();
-        private HashMap<Point, Double> distanceMap = new HashMap<>();
-        @Override
-        public int compare(Object o1, Object o2) {
-            Point p1 = (Point) o1;
-            Point p2 = (Point) o2;
-            if (comparatorHeuristicMap.get(p1) > comparatorHeuristicMap.get(p2)) {
-                return 1;
-            } else if (comparatorHeuristicMap.get(p1) < comparatorHeuristicMap.get(p2)) {
-                return -1;
-            }
-            return 0;
-        }
-
-        public void putHeuristic(Point node, double heuristic) {
-            comparatorHeuristicMap.put(node, heuristic);
-        }
-
-        public double getHeuristic(Point node) {
-            return comparatorHeuristicMap.get(node);
-        }
-
-        public void putDistance(Point node, double distance) {
-            distanceMap.put(node, distance);
-        }
-
-        public double getDistance(Point node) {
-            return distanceMap.get(node);
-        }
-
-        public HashMap<Point, Double> getComparatorHeuristicMap() {
-            return comparatorHeuristicMap;
-        }
-
-        public void setComparatorHeuristicMap(HashMap<Point, Double> comparatorHeuristicMap) {
-            this.comparatorHeuristicMap = comparatorHeuristicMap;
-        }
-
-        public HashMap<Point, Double> getDistanceMap() {
-            return distanceMap;
+    /**
+     * Finds the route described by routeParams, as in {@link #findAndDrawRoute}.
+     * @param rasterImageParams If not null, receives the router's "route_settled_nodes".
+     * @return the route's vertices, or an empty array if the end is unreachable.
+     */
+    static int[] findRoute(Map<String, Double> routeParams,
+                           Map<String, Object> rasterImageParams) {
+        double startLat = routeParams.get("start_lat");
+        double startLon = routeParams.get("start_lon");
+        double endLat = routeParams.get("end_lat");
+        double endLon = routeParams.get("end_lon");
+        int start = g.nearestVertex(startLat, startLon);
+        int end = g.nearestVertex(endLat, endLon);
+        Router router = routers.get();
+        int[] route = router.route(start, end);
+        if (rasterImageParams != null) {
+            rasterImageParams.put("route_settled_nodes", router.settledCount());
         }
+        return route;
+    }
 
-        public void setDistanceMap(HashMap<Point, Double> distanceMap) {
-            this.distanceMap = distanceMap;
+    /**
+     * Draws route onto the rastered image im, as in {@link #findAndDrawRoute}.
+     */
+    static void drawRoute(int[] route, Map<String, Object> rasterImageParams, BufferedImage im) {
+        RoadGraph graph = g.getGraph();
+        Stroke stroke = new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
+                BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        Graphics2D gr = (Graphics2D) im.getGraphics();
+        gr.setStroke(stroke);
+        gr.setColor(ROUTE_STROKE_COLOR);
+        double lonDistPerPix = ((Double) rasterImageParams.get("raster_lr_lon")
+                - (Double) rasterImageParams.get("raster_ul_lon"))
+                / (int) rasterImageParams.get("raster_width");
+        double latDistPerPix = ((Double) rasterImageParams.get("raster_ul_lat")
+                - (Double) rasterImageParams.get("raster_lr_lat"))
+                / (int) rasterImageParams.get("raster_height");
+        for (int i = 0; i + 1 < route.length; i++) {
+            double x1 = (graph.lon(route[i]) - (double)
+                    rasterImageParams.get("raster_ul_lon")) / lonDistPerPix;
+            double y1 = (graph.lat(route[i]) - (double)
+                    rasterImageParams.get("raster_lr_lat")) / latDistPerPix;
+            double x2 = (graph.lon(route[i + 1]) - (double)
+                    rasterImageParams.get("raster_ul_lon")) / lonDistPerPix;
+            double y2 = (graph.lat(route[i + 1]) - (double)
+                    rasterImageParams.get("raster_lr_lat")) / latDistPerPix;
+            gr.drawLine((int) x1, (int) ((int) rasterImageParams.get("raster_height") - y1),
+                    (int) x2, ((int) ((int) rasterImageParams.get("raster_height") - y2)));
         }
     }
 
@@ -532,7 +810,7 @@ public class MapServer {
      * cleaned <code>prefix</code>.
      */
     public static List<String> getLocationsByPrefix(String prefix) {
-        return g.getTrieAgain().lookupWords(GraphDB.cleanString(prefix));
+        return g.getNameIndex().lookupWords(GraphDB.cleanString(prefix));
 
 
 
@@ -544,6 +822,39 @@ public class MapServer {
 
     }
 
+    /**
+     * Collects the (at most) k best names of OSM locations that prefix-match the query string,
+     * best first, as ranked by {@link NameIndex#topCompletions}.
+     * @param prefix Prefix string to be searched for. Could be any case, with our without
+     *               punctuation.
+     */
+    public static List<String> getTopLocationsByPrefix(String prefix, int k) {
+        return g.getNameIndex().topCompletions(GraphDB.cleanString(prefix), k);
+    }
+
+    /**
+     * Collects the (at most) k best names of OSM locations that prefix-match the query string
+     * with up to maxEdits typos, at most 2: those needing the fewest edits first, then as
+     * {@link #getTopLocationsByPrefix} ranks them. Short queries allow fewer edits; see
+     * {@link NameIndex#fuzzyCompletions}.
+     * @param prefix Prefix string to be searched for. Could be any case, with our without
+     *               punctuation.
+     */
+    public static List<String> getFuzzyLocationsByPrefix(String prefix, int maxEdits, int k) {
+        return g.getNameIndex().fuzzyCompletions(GraphDB.cleanString(prefix),
+                Math.min(maxEdits, 2), k);
+    }
+
+    /**
+     * Collects the (at most) k best names of OSM locations having every word of the query
+     * string, in any order, with the last word only as a prefix: "hall whe" finds
+     * "Wheeler Hall". Ranked as by {@link #getTopLocationsByPrefix}.
+     * @param query Words to be searched for. Could be any case, with our without punctuation.
+     */
+    public static List<String> getLocationsByWords(String query, int k) {
+        return g.getNameIndex().wordCompletions(GraphDB.cleanString(query), k);
+    }
+
     /**
      * Collect all locations that match a cleaned <code>locationName</code>, and return
      * information about each node that matches.
@@ -557,7 +868,7 @@ public class MapServer {
      * "id" -> Number, The id of the node. <br>
      */
     public static List<Map<String, Object>> getLocations(String locationName) {
-        return g.getSearch().get(locationName);
+        return g.getNameIndex().locations(locationName);
 
     }
 }
@@ -0,0 +1,101 @@
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Road graph read directly out of a memory-mapped graph snapshot. The CSR arrays are never
+ * copied onto the Java heap: each accessor reads through a typed view of the mapped file. The
+ * operating system's page cache backs the mapping, so several server processes mapping the
+ * same snapshot share one copy of the graph, and the graph adds nothing to GC pressure.
+ * The layout is the one written by {@link CompactGraph#write}.
+ */
+public class MappedGraph implements RoadGraph {
+    private final int vertexCount;
+    private final DoubleBuffer lat;
+    private final DoubleBuffer lon;
+    private final LongBuffer osmId;
+    private final IntBuffer offsets;
+    private final IntBuffer targets;
+    private final DoubleBuffer weights;
+
+    /**
+     * Maps the graph starting at the buffer's current position, leaving the position just
+     * past it. The buffer must stay mapped for as long as the graph is used.
+     */
+    MappedGraph(ByteBuffer in) {
+        vertexCount = in.getInt();
+        int edgeCount = in.getInt();
+        lat = section(in, 8 * vertexCount).asDoubleBuffer();
+        lon = section(in, 8 * vertexCount).asDoubleBuffer();
+        osmId = section(in, 8 * vertexCount).asLongBuffer();
+        offsets = section(in, 4 * (vertexCount + 1)).asIntBuffer();
+        targets = section(in, 4 * edgeCount).asIntBuffer();
+        weights = section(in, 8 * edgeCount).asDoubleBuffer();
+    }
+
+    /** Returns a view of the next bytes of in and advances past them. */
+    static ByteBuffer section(ByteBuffer in, int bytes) {
+        ByteBuffer section = in.slice();
+        section.limit(bytes);
+        in.position(in.position() + bytes);
+        return section;
+    }
+
+    @Override
+    public int vertexCount() {
+        return vertexCount;
+    }
+
+    @Override
+    public int edgeCount() {
+        return targets.limit();
+    }
+
+    @Override
+    public double lat(int v) {
+        return lat.get(v);
+    }
+
+    @Override
+    public double lon(int v) {
+        return lon.get(v);
+    }
+
+    @Override
+    public long osmId(int v) {
+        return osmId.get(v);
+    }
+
+    @Override
+    public int firstEdge(int v) {
+        return offsets.get(v);
+    }
+
+    @Override
+    public int endEdge(int v) {
+        return offsets.get(v + 1);
+    }
+
+    @Override
+    public int degree(int v) {
+        return offsets.get(v + 1) - offsets.get(v);
+    }
+
+    @Override
+    public int target(int e) {
+        return targets.get(e);
+    }
+
+    @Override
+    public double weight(int e) {
+        return weights.get(e);
+    }
+
+    @Override
+    public double distance(int u, int v) {
+        double dLat = lat.get(u) - lat.get(v);
+        double dLon = lon.get(u) - lon.get(v);
+        return Math.sqrt(dLat * dLat + dLon * dLon);
+    }
+}
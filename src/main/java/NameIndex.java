@@ -0,0 +1,885 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Immutable index of the named nodes, serving both prefix search and exact location lookups
+ * from one flat buffer that is stored in, and used straight out of, the graph snapshot.
+ * <p>
+ * Cleaned names (see GraphDB#cleanString) are mapped to their ordinals in sorted order by a
+ * minimal acyclic finite-state transducer: states sharing the same set of suffixes are merged,
+ * and each arc carries the number of names that sort before it within its state, so the
+ * outputs summed along a name's path are its ordinal. The names completing a prefix are a
+ * contiguous range of ordinals, found by walking the prefix. An ordinal in turn indexes the
+ * range of its locations (lat, lon, id and original name, in file order) in packed arrays.
+ * <p>
+ * Ranked completions order names by {@link Builder#ranking}; a min-tree over the ranks of
+ * the ordinals picks the best names of a range one at a time. Typo-tolerant completions walk
+ * the transducer alongside a Levenshtein automaton, simulated a row of edit distances at a
+ * time, and rank the ranges of names it accepts the same way.
+ * <p>
+ * For search by words in any order, a second transducer maps each word of the cleaned names
+ * to its ordinal, which indexes a sorted list of the ordinals of the names containing it.
+ * The words completing a prefix are again a range of ordinals.
+ * <p>
+ * The layout, all big-endian, is:
+ * <pre>
+ *     counts: names, locations, words, postings, bytes of location names
+ *     locations: lat, lon and id arrays, in name order and then file order
+ *     names: first location of each name, names by rank, the rank min-tree
+ *     strings: offset of each location's UTF-8 name
+ *     words: first posting of each word, then the postings
+ *     the name transducer, then the word transducer, each:
+ *         counts: states, arcs, root state
+ *         states: first arc and (strings accepted &lt;&lt; 1 | final) of each state
+ *         arcs: target and output of each arc, then the labels
+ *     the UTF-8 location names
+ * </pre>
+ */
+public class NameIndex {
+    private final int nameCount;
+    private final DoubleBuffer lat;
+    private final DoubleBuffer lon;
+    private final LongBuffer id;
+    /** Name k's locations are firstLocation[k] up to, but not including, firstLocation[k + 1]. */
+    private final IntBuffer firstLocation;
+    /** The ordinal of the name of each rank, best first. */
+    private final IntBuffer byRank;
+    /** Min-tree of ranks: node i covers nodes 2i and 2i + 1, leaf nameCount + k name k. */
+    private final IntBuffer rankTree;
+    private final IntBuffer nameStart;
+    /** Word t's names are postings firstPosting[t] up to, but not including, the next word's. */
+    private final IntBuffer firstPosting;
+    /** Ordinals of the names containing each word, ascending. */
+    private final IntBuffer postings;
+    /** Maps cleaned names to their ordinals. */
+    private final Automaton nameOrdinals;
+    /** Maps the words of cleaned names to their ordinals. */
+    private final Automaton wordOrdinals;
+    private final ByteBuffer names;
+    /** The whole index, as serialized. */
+    private final ByteBuffer bytes;
+
+    /**
+     * Wraps the index filling the buffer. A mapped buffer must stay mapped for as long as the
+     * index is used.
+     */
+    private NameIndex(ByteBuffer in) {
+        bytes = in.duplicate();
+        nameCount = in.getInt();
+        int locationCount = in.getInt();
+        int wordCount = in.getInt();
+        int postingCount = in.getInt();
+        int nameBytes = in.getInt();
+        lat = MappedGraph.section(in, 8 * locationCount).asDoubleBuffer();
+        lon = MappedGraph.section(in, 8 * locationCount).asDoubleBuffer();
+        id = MappedGraph.section(in, 8 * locationCount).asLongBuffer();
+        firstLocation = MappedGraph.section(in, 4 * (nameCount + 1)).asIntBuffer();
+        byRank = MappedGraph.section(in, 4 * nameCount).asIntBuffer();
+        rankTree = MappedGraph.section(in, 4 * 2 * nameCount).asIntBuffer();
+        nameStart = MappedGraph.section(in, 4 * (locationCount + 1)).asIntBuffer();
+        firstPosting = MappedGraph.section(in, 4 * (wordCount + 1)).asIntBuffer();
+        postings = MappedGraph.section(in, 4 * postingCount).asIntBuffer();
+        nameOrdinals = new Automaton(in);
+        wordOrdinals = new Automaton(in);
+        names = MappedGraph.section(in, nameBytes);
+    }
+
+    /**
+     * Reads an index written by {@link #write} from the buffer's current position, leaving the
+     * position just past it. The index is used in place, not copied.
+     */
+    static NameIndex read(ByteBuffer in) {
+        int bytes = in.getInt();
+        return new NameIndex(MappedGraph.section(in, bytes));
+    }
+
+    /** Writes the index's bytes to out, preceded by their number, as {@link #read} expects. */
+    void write(DataOutputStream out) throws IOException {
+        byte[] copy = new byte[bytes.limit()];
+        bytes.duplicate().get(copy);
+        out.writeInt(copy.length);
+        out.write(copy);
+    }
+
+    /** Number of distinct cleaned names. */
+    public int size() {
+        return nameCount;
+    }
+
+    /** Number of named nodes. */
+    public int locationCount() {
+        return lat.limit();
+    }
+
+    /** Number of distinct words in the cleaned names. */
+    public int wordCount() {
+        return firstPosting.limit() - 1;
+    }
+
+    /** Number of states of the name transducer. */
+    public int stateCount() {
+        return nameOrdinals.stateInfo.limit();
+    }
+
+    /** Number of arcs of the name transducer. */
+    public int arcCount() {
+        return nameOrdinals.arcLabel.limit();
+    }
+
+    /** Size of the serialized index in bytes. */
+    public int byteSize() {
+        return bytes.limit();
+    }
+
+    /**
+     * Returns the ordinal of the cleaned name, or -1 if no location has it.
+     */
+    public int ordinal(String cleanedName) {
+        return nameOrdinals.ordinal(cleanedName);
+    }
+
+    /**
+     * Returns the locations whose cleaned name is locationName, in file order, as maps of
+     * "lat", "lon", "name" and "id"; null if there are none.
+     */
+    public List<Map<String, Object>> locations(String locationName) {
+        int k = ordinal(locationName);
+        if (k < 0) {
+            return null;
+        }
+        List<Map<String, Object>> locations = new ArrayList<>();
+        for (int l = firstLocation.get(k); l < firstLocation.get(k + 1); l++) {
+            Map<String, Object> location = new HashMap<>();
+            location.put("lat", lat.get(l));
+            location.put("lon", lon.get(l));
+            location.put("name", locationName(l));
+            location.put("id", id.get(l));
+            locations.add(location);
+        }
+        return locations;
+    }
+
+    /**
+     * Returns the full names whose cleaned forms start with the cleaned prefix, or null if
+     * no name starts with the prefix's first character. A one-character prefix returns just
+     * the name that is that character, or null in its place if there is none.
+     */
+    public List<String> lookupWords(String prefix) {
+        if (prefix.length() > 0 && range(prefix.substring(0, 1)) == null) {
+            return null;
+        }
+        if (prefix.length() == 1) {
+            List<String> returnList = new ArrayList<>(1);
+            int k = ordinal(prefix);
+            returnList.add(k < 0 ? null : fullName(k));
+            return returnList;
+        }
+        int[] range = range(prefix);
+        if (range == null) {
+            return new ArrayList<>();
+        }
+        List<String> words = new ArrayList<>(range[1] - range[0]);
+        for (int k = range[0]; k < range[1]; k++) {
+            words.add(fullName(k));
+        }
+        return words;
+    }
+
+    /**
+     * Returns the (at most) k best full names completing the cleaned prefix, in the order of
+     * {@link Builder#ranking}. Costs the length of the prefix plus k log k tree searches
+     * however many names match.
+     */
+    public List<String> topCompletions(String prefix, int k) {
+        List<String> completions = new ArrayList<>();
+        int[] range = range(prefix);
+        if (range == null || range[0] == range[1]) {
+            return completions;
+        }
+        PriorityQueue<int[]> ranges = new PriorityQueue<>(Comparator.comparingInt(r -> r[0]));
+        ranges.add(new int[]{bestRank(range[0], range[1]), range[0], range[1]});
+        while (completions.size() < k && !ranges.isEmpty()) {
+            completions.add(fullName(pollBest(ranges)));
+        }
+        return completions;
+    }
+
+    /**
+     * Removes and returns the best ranked ordinal of the ranges, queued as (best rank, first
+     * ordinal, end ordinal) by best rank, and queues what is left of its range either side.
+     */
+    private int pollBest(PriorityQueue<int[]> ranges) {
+        int[] best = ranges.poll();
+        int ordinal = byRank.get(best[0]);
+        if (best[1] < ordinal) {
+            ranges.add(new int[]{bestRank(best[1], ordinal), best[1], ordinal});
+        }
+        if (ordinal + 1 < best[2]) {
+            ranges.add(new int[]{bestRank(ordinal + 1, best[2]), ordinal + 1, best[2]});
+        }
+        return ordinal;
+    }
+
+    /**
+     * Returns the (at most) k best full names completing some string within maxEdits
+     * insertions, deletions or substitutions of the cleaned prefix: those needing the fewest
+     * edits first, then by rank as in {@link #topCompletions}. As with Lucene's AUTO
+     * fuzziness, prefixes shorter than 3 characters allow no edit and those shorter than 6 at
+     * most one, since otherwise nearly every name would match.
+     */
+    public List<String> fuzzyCompletions(String prefix, int maxEdits, int k) {
+        int edits = Math.min(maxEdits, prefix.length() < 3 ? 0 : prefix.length() < 6 ? 1 : 2);
+        int[] row = new int[prefix.length() + 1];
+        for (int j = 0; j < row.length; j++) {
+            row[j] = j;
+        }
+        List<int[]> matches = new ArrayList<>();
+        matchFuzzy(nameOrdinals.root, 0, row, prefix, edits + 1, matches);
+        matches.sort(Comparator.comparingInt(m -> m[0]));
+
+        List<String> completions = new ArrayList<>();
+        for (int distance = 0; distance <= edits && completions.size() < k; distance++) {
+            PriorityQueue<int[]> ranges = new PriorityQueue<>(
+                    Comparator.comparingInt(r -> r[0]));
+            for (int[] match : matches) {
+                if (match[0] == distance && match[1] < match[2]) {
+                    ranges.add(new int[]{bestRank(match[1], match[2]), match[1], match[2]});
+                }
+            }
+            while (completions.size() < k && !ranges.isEmpty()) {
+                int ordinal = pollBest(ranges);
+                /* Names matched with fewer edits deeper down were listed already. */
+                if (!matchedWithin(matches, ordinal, distance)) {
+                    completions.add(fullName(ordinal));
+                }
+            }
+        }
+        return completions;
+    }
+
+    /**
+     * Walks the transducer from state, whose path is matched against query by the Levenshtein
+     * row of edit distances from the path to each prefix of query, and adds the (distance,
+     * first ordinal, end ordinal) of every state whose path is within fewer than bound edits
+     * of the whole query, and closer to it than any state above. Branches whose row is nowhere
+     * under bound are pruned, as no path through them can come close enough.
+     */
+    private void matchFuzzy(int state, int output, int[] row, String query, int bound,
+                            List<int[]> matches) {
+        Automaton fst = nameOrdinals;
+        int distance = row[query.length()];
+        if (distance < bound) {
+            int from = output;
+            if (state == fst.root && fst.isFinal(state)) {
+                from++;
+            }
+            matches.add(new int[]{distance, from, output + fst.accepted(state)});
+            if (distance == 0) {
+                return;
+            }
+            bound = distance;
+        }
+        for (int arc = fst.firstArc.get(state); arc < fst.firstArc.get(state + 1); arc++) {
+            char c = fst.arcLabel.get(arc);
+            int[] next = new int[row.length];
+            next[0] = row[0] + 1;
+            int closest = next[0];
+            for (int j = 1; j < row.length; j++) {
+                next[j] = Math.min(Math.min(row[j], next[j - 1]) + 1,
+                        row[j - 1] + (query.charAt(j - 1) == c ? 0 : 1));
+                closest = Math.min(closest, next[j]);
+            }
+            if (closest < bound) {
+                matchFuzzy(fst.arcTarget.get(arc), output + fst.arcOutput.get(arc), next, query,
+                        bound, matches);
+            }
+        }
+    }
+
+    /** Whether ordinal lies in a match of fewer than distance edits. */
+    private static boolean matchedWithin(List<int[]> matches, int ordinal, int distance) {
+        for (int[] match : matches) {
+            if (match[0] >= distance) {
+                return false;
+            }
+            if (match[1] <= ordinal && ordinal < match[2]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the (at most) k best full names, ranked as by {@link #topCompletions}, having
+     * every word of the cleaned query in any order, the last only as the prefix of a word: so
+     * "hall whe" finds "Wheeler Hall". Costs one search of each word, then a galloping
+     * intersection of their sorted lists of names, shortest first.
+     */
+    public List<String> wordCompletions(String query, int k) {
+        List<String> completions = new ArrayList<>();
+        String[] words = query.trim().split(" +");
+        if (words[0].isEmpty() || k < 1) {
+            return completions;
+        }
+        int last = words.length - 1;
+        int[][] lists = new int[last][];
+        for (int i = 0; i < last; i++) {
+            int word = wordOrdinals.ordinal(words[i]);
+            if (word < 0) {
+                return completions;
+            }
+            lists[i] = new int[]{firstPosting.get(word), firstPosting.get(word + 1)};
+        }
+        int[] completed = wordOrdinals.range(words[last]);
+        if (completed == null) {
+            return completions;
+        }
+
+        int[] candidates = null;
+        Arrays.sort(lists, Comparator.comparingInt(list -> list[1] - list[0]));
+        for (int[] list : lists) {
+            if (candidates == null) {
+                candidates = new int[list[1] - list[0]];
+                IntBuffer shortest = postings.duplicate();
+                shortest.position(list[0]);
+                shortest.get(candidates);
+            } else {
+                candidates = intersect(candidates, list[0], list[1]);
+            }
+        }
+        /* Names with a word completing the last one: marking all their lists, or looking up
+         * each candidate in each list, whichever touches fewer postings. */
+        int unionSize = firstPosting.get(completed[1]) - firstPosting.get(completed[0]);
+        if (candidates == null
+                || unionSize < (long) candidates.length * (completed[1] - completed[0])) {
+            BitSet union = new BitSet(nameCount);
+            for (int p = firstPosting.get(completed[0]); p < firstPosting.get(completed[1]);
+                    p++) {
+                union.set(postings.get(p));
+            }
+            if (candidates == null) {
+                candidates = union.stream().toArray();
+            } else {
+                candidates = Arrays.stream(candidates).filter(union::get).toArray();
+            }
+        } else {
+            candidates = Arrays.stream(candidates).filter(name -> {
+                for (int word = completed[0]; word < completed[1]; word++) {
+                    int to = firstPosting.get(word + 1);
+                    int at = seek(firstPosting.get(word), to, name);
+                    if (at < to && postings.get(at) == name) {
+                        return true;
+                    }
+                }
+                return false;
+            }).toArray();
+        }
+
+        if (candidates.length > nameCount / 64) {
+            /* Many match, so the best are soon found going down the ranks. */
+            BitSet matched = new BitSet(nameCount);
+            for (int name : candidates) {
+                matched.set(name);
+            }
+            for (int rank = 0; rank < nameCount && completions.size() < k; rank++) {
+                if (matched.get(byRank.get(rank))) {
+                    completions.add(fullName(byRank.get(rank)));
+                }
+            }
+            return completions;
+        }
+        /* The k best ranked, worst on top to be dropped first. */
+        PriorityQueue<Integer> best = new PriorityQueue<>(
+                Comparator.comparingInt(name -> -rankTree.get(nameCount + name)));
+        for (int name : candidates) {
+            best.add(name);
+            if (best.size() > k) {
+                best.poll();
+            }
+        }
+        while (!best.isEmpty()) {
+            completions.add(fullName(best.poll()));
+        }
+        Collections.reverse(completions);
+        return completions;
+    }
+
+    /** Returns the names of sorted that are also postings from up to, but not including, to. */
+    private int[] intersect(int[] sorted, int from, int to) {
+        int[] both = new int[sorted.length];
+        int count = 0;
+        for (int name : sorted) {
+            from = seek(from, to, name);
+            if (from == to) {
+                break;
+            }
+            if (postings.get(from) == name) {
+                both[count++] = name;
+            }
+        }
+        return Arrays.copyOf(both, count);
+    }
+
+    /**
+     * Returns the first of the postings from up to, but not including, to that is at least
+     * name, or to if there is none: by galloping, doubling the step until one is, then binary
+     * search, so that intersecting a short list with a long one skips most of the long one.
+     */
+    private int seek(int from, int to, int name) {
+        int hi = from;
+        for (int step = 1; hi < to && postings.get(hi) < name; step <<= 1) {
+            from = hi + 1;
+            hi += step;
+        }
+        hi = Math.min(hi, to);
+        while (from < hi) {
+            int mid = (from + hi) >>> 1;
+            if (postings.get(mid) < name) {
+                from = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Returns the ordinals of the names completing prefix, from the first up to, but not
+     * including, the second; null if there are none. The empty name, which some locations have
+     * once cleaned, is no completion.
+     */
+    private int[] range(String prefix) {
+        int[] range = nameOrdinals.range(prefix);
+        if (range != null && prefix.isEmpty() && nameOrdinals.isFinal(nameOrdinals.root)) {
+            range[0]++;
+        }
+        return range;
+    }
+
+    /** Returns the best rank among the names from up to, but not including, to. */
+    private int bestRank(int from, int to) {
+        int best = Integer.MAX_VALUE;
+        for (int lo = from + nameCount, hi = to + nameCount; lo < hi; lo >>= 1, hi >>= 1) {
+            if ((lo & 1) == 1) {
+                best = Math.min(best, rankTree.get(lo++));
+            }
+            if ((hi & 1) == 1) {
+                best = Math.min(best, rankTree.get(--hi));
+            }
+        }
+        return best;
+    }
+
+    /** The full name shown for name k: that of its last location in the file. */
+    private String fullName(int k) {
+        return locationName(firstLocation.get(k + 1) - 1);
+    }
+
+    private String locationName(int l) {
+        ByteBuffer bytes = names.duplicate();
+        bytes.position(nameStart.get(l));
+        byte[] name = new byte[nameStart.get(l + 1) - nameStart.get(l)];
+        bytes.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Collects the named nodes while the OSM file is parsed, in file order, then lays them out
+     * as a NameIndex on the heap.
+     */
+    public static class Builder {
+        private final List<String> names = new ArrayList<>();
+        private double[] lat = new double[1024];
+        private double[] lon = new double[1024];
+        private long[] id = new long[1024];
+
+        public void add(String name, double nodeLat, double nodeLon, long nodeId) {
+            int l = names.size();
+            if (l == lat.length) {
+                lat = Arrays.copyOf(lat, 2 * l);
+                lon = Arrays.copyOf(lon, 2 * l);
+                id = Arrays.copyOf(id, 2 * l);
+            }
+            names.add(name);
+            lat[l] = nodeLat;
+            lon[l] = nodeLon;
+            id[l] = nodeId;
+        }
+
+        /**
+         * Orders name ordinals best first: the names of the most locations, then the shorter
+         * full names, then alphabetically. Every ranked completion follows this order.
+         */
+        private static Comparator<Integer> ranking(int[] firstLocation, String[] fullNames) {
+            return Comparator.comparingInt((Integer k) -> firstLocation[k] - firstLocation[k + 1])
+                    .thenComparingInt(k -> fullNames[k].length())
+                    .thenComparing(k -> fullNames[k]);
+        }
+
+        public NameIndex build() {
+            int locationCount = names.size();
+            String[] cleaned = new String[locationCount];
+            Integer[] order = new Integer[locationCount];
+            for (int l = 0; l < locationCount; l++) {
+                cleaned[l] = GraphDB.cleanString(names.get(l));
+                order[l] = l;
+            }
+            /* Stable, so each name's locations stay in file order. */
+            Arrays.sort(order, Comparator.comparing(l -> cleaned[l]));
+
+            List<String> keys = new ArrayList<>();
+            int[] firstLocation = new int[locationCount + 1];
+            for (int i = 0; i < locationCount; i++) {
+                String key = cleaned[order[i]];
+                if (keys.isEmpty() || !keys.get(keys.size() - 1).equals(key)) {
+                    firstLocation[keys.size()] = i;
+                    keys.add(key);
+                }
+            }
+            int nameCount = keys.size();
+            firstLocation[nameCount] = locationCount;
+
+            String[] fullNames = new String[nameCount];
+            Integer[] ranked = new Integer[nameCount];
+            for (int k = 0; k < nameCount; k++) {
+                fullNames[k] = names.get(order[firstLocation[k + 1] - 1]);
+                ranked[k] = k;
+            }
+            Arrays.sort(ranked, ranking(firstLocation, fullNames));
+            int[] rankTree = new int[2 * nameCount];
+            for (int r = 0; r < nameCount; r++) {
+                rankTree[nameCount + ranked[r]] = r;
+            }
+            for (int i = nameCount - 1; i > 0; i--) {
+                rankTree[i] = Math.min(rankTree[2 * i], rankTree[2 * i + 1]);
+            }
+
+            byte[][] utf8 = new byte[locationCount][];
+            int nameBytes = 0;
+            for (int i = 0; i < locationCount; i++) {
+                utf8[i] = names.get(order[i]).getBytes(StandardCharsets.UTF_8);
+                nameBytes += utf8[i].length;
+            }
+
+            /* The names containing each word, ascending as names are visited in order. */
+            TreeMap<String, List<Integer>> wordNames = new TreeMap<>();
+            int postingCount = 0;
+            for (int k = 0; k < nameCount; k++) {
+                for (String word : keys.get(k).split(" ")) {
+                    List<Integer> containing = wordNames.computeIfAbsent(word,
+                            w -> new ArrayList<>());
+                    if (!word.isEmpty() && (containing.isEmpty()
+                            || containing.get(containing.size() - 1) != k)) {
+                        containing.add(k);
+                        postingCount++;
+                    }
+                }
+            }
+            wordNames.remove("");
+
+            Transducer nameFst = new Transducer();
+            for (String key : keys) {
+                nameFst.add(key);
+            }
+            nameFst.finish();
+            Transducer wordFst = new Transducer();
+            for (String word : wordNames.keySet()) {
+                wordFst.add(word);
+            }
+            wordFst.finish();
+
+            ByteBuffer out = ByteBuffer.allocate(5 * 4 + 3 * 8 * locationCount
+                    + 4 * (nameCount + 1) + 4 * 3 * nameCount + 4 * (locationCount + 1)
+                    + 4 * (wordNames.size() + 1) + 4 * postingCount + nameFst.byteSize()
+                    + wordFst.byteSize() + nameBytes);
+            out.putInt(nameCount).putInt(locationCount).putInt(wordNames.size())
+                    .putInt(postingCount).putInt(nameBytes);
+            for (int i = 0; i < locationCount; i++) {
+                out.putDouble(lat[order[i]]);
+            }
+            for (int i = 0; i < locationCount; i++) {
+                out.putDouble(lon[order[i]]);
+            }
+            for (int i = 0; i < locationCount; i++) {
+                out.putLong(id[order[i]]);
+            }
+            for (int k = 0; k <= nameCount; k++) {
+                out.putInt(firstLocation[k]);
+            }
+            for (int r = 0; r < nameCount; r++) {
+                out.putInt(ranked[r]);
+            }
+            for (int rank : rankTree) {
+                out.putInt(rank);
+            }
+            int nameStart = 0;
+            for (int i = 0; i < locationCount; i++) {
+                out.putInt(nameStart);
+                nameStart += utf8[i].length;
+            }
+            out.putInt(nameStart);
+            int firstPosting = 0;
+            for (List<Integer> containing : wordNames.values()) {
+                out.putInt(firstPosting);
+                firstPosting += containing.size();
+            }
+            out.putInt(firstPosting);
+            for (List<Integer> containing : wordNames.values()) {
+                for (int k : containing) {
+                    out.putInt(k);
+                }
+            }
+            nameFst.writeTo(out);
+            wordFst.writeTo(out);
+            for (byte[] name : utf8) {
+                out.put(name);
+            }
+            out.flip();
+            return new NameIndex(out);
+        }
+    }
+
+    /**
+     * Builds the minimal transducer from strings added in sorted order, as by Daciuk et al.:
+     * the states along the last string's path stay open, and once the next string diverges
+     * from it, the states past the divergence are frozen, each replaced by an equal frozen
+     * state if there is one.
+     */
+    private static class Transducer {
+        private int root;
+        private int states;
+        private int[] firstArc = new int[1024];
+        private int[] info = new int[1024];
+        private int arcs;
+        private int[] target = new int[1024];
+        private int[] output = new int[1024];
+        private char[] label = new char[1024];
+        /** Frozen states by their finality, labels and targets. */
+        private final Map<Signature, Integer> register = new HashMap<>();
+
+        /** The open states on the last string's path; each but the last ends in an open arc. */
+        private final List<OpenState> path = new ArrayList<>();
+        private String last = "";
+
+        Transducer() {
+            path.add(new OpenState());
+        }
+
+        void add(String string) {
+            int common = 0;
+            while (common < string.length() && common < last.length()
+                    && string.charAt(common) == last.charAt(common)) {
+                common++;
+            }
+            freeze(common);
+            for (int i = common; i < string.length(); i++) {
+                path.get(i).labels.append(string.charAt(i));
+                path.add(new OpenState());
+            }
+            path.get(string.length()).isFinal = true;
+            last = string;
+        }
+
+        /** Freezes every state, the root last. */
+        void finish() {
+            freeze(0);
+            root = freeze(path.get(0));
+        }
+
+        int byteSize() {
+            return 3 * 4 + 4 * (states + 1) + 4 * states + (4 + 4 + 2) * arcs;
+        }
+
+        /** Lays the frozen transducer out as {@link Automaton} reads it. */
+        void writeTo(ByteBuffer out) {
+            out.putInt(states).putInt(arcs).putInt(root);
+            for (int s = 0; s < states; s++) {
+                out.putInt(firstArc[s]);
+            }
+            out.putInt(arcs);
+            for (int s = 0; s < states; s++) {
+                out.putInt(info[s]);
+            }
+            for (int a = 0; a < arcs; a++) {
+                out.putInt(target[a]);
+            }
+            for (int a = 0; a < arcs; a++) {
+                out.putInt(output[a]);
+            }
+            for (int a = 0; a < arcs; a++) {
+                out.putChar(label[a]);
+            }
+        }
+
+        /** Freezes the states on the path deeper than depth. */
+        private void freeze(int depth) {
+            while (path.size() > depth + 1) {
+                int state = freeze(path.remove(path.size() - 1));
+                path.get(path.size() - 1).targets.add(state);
+            }
+        }
+
+        private int freeze(OpenState open) {
+            int arcCount = open.labels.length();
+            int[] key = new int[1 + 2 * arcCount];
+            key[0] = open.isFinal ? 1 : 0;
+            for (int a = 0; a < arcCount; a++) {
+                key[1 + 2 * a] = open.labels.charAt(a);
+                key[2 + 2 * a] = open.targets.get(a);
+            }
+            Signature signature = new Signature(key);
+            Integer existing = register.get(signature);
+            if (existing != null) {
+                return existing;
+            }
+            if (states == info.length) {
+                firstArc = Arrays.copyOf(firstArc, 2 * states);
+                info = Arrays.copyOf(info, 2 * states);
+            }
+            if (arcs + arcCount > target.length) {
+                int capacity = Math.max(2 * target.length, arcs + arcCount);
+                target = Arrays.copyOf(target, capacity);
+                output = Arrays.copyOf(output, capacity);
+                label = Arrays.copyOf(label, capacity);
+            }
+            /* A string ending here sorts first, then those through each arc in label order. */
+            int accepted = key[0];
+            firstArc[states] = arcs;
+            for (int a = 0; a < arcCount; a++) {
+                label[arcs] = open.labels.charAt(a);
+                target[arcs] = open.targets.get(a);
+                output[arcs] = accepted;
+                accepted += info[target[arcs]] >>> 1;
+                arcs++;
+            }
+            info[states] = accepted << 1 | key[0];
+            register.put(signature, states);
+            return states++;
+        }
+    }
+
+    /**
+     * A transducer built by {@link Transducer}, read in place: maps each string it accepts to
+     * its ordinal among them in sorted order.
+     */
+    private static class Automaton {
+        private final int root;
+        private final IntBuffer firstArc;
+        private final IntBuffer stateInfo;
+        private final IntBuffer arcTarget;
+        private final IntBuffer arcOutput;
+        private final CharBuffer arcLabel;
+
+        /** Wraps the transducer at the buffer's position, leaving the position past it. */
+        Automaton(ByteBuffer in) {
+            int stateCount = in.getInt();
+            int arcCount = in.getInt();
+            root = in.getInt();
+            firstArc = MappedGraph.section(in, 4 * (stateCount + 1)).asIntBuffer();
+            stateInfo = MappedGraph.section(in, 4 * stateCount).asIntBuffer();
+            arcTarget = MappedGraph.section(in, 4 * arcCount).asIntBuffer();
+            arcOutput = MappedGraph.section(in, 4 * arcCount).asIntBuffer();
+            arcLabel = MappedGraph.section(in, 2 * arcCount).asCharBuffer();
+        }
+
+        boolean isFinal(int state) {
+            return (stateInfo.get(state) & 1) == 1;
+        }
+
+        /** Number of strings accepted from state. */
+        int accepted(int state) {
+            return stateInfo.get(state) >>> 1;
+        }
+
+        /** Returns the ordinal of s, or -1 if s is not accepted. */
+        int ordinal(String s) {
+            int[] end = walk(s);
+            return end != null && isFinal(end[0]) ? end[1] : -1;
+        }
+
+        /**
+         * Returns the ordinals of the strings starting with prefix, from the first up to, but
+         * not including, the second; null if there are none.
+         */
+        int[] range(String prefix) {
+            int[] end = walk(prefix);
+            return end == null ? null : new int[]{end[1], end[1] + accepted(end[0])};
+        }
+
+        /**
+         * Follows s from the root, returning the state reached and the outputs summed on the
+         * way, or null if no string starts with s.
+         */
+        private int[] walk(String s) {
+            int state = root;
+            int output = 0;
+            for (int i = 0; i < s.length(); i++) {
+                int arc = arc(state, s.charAt(i));
+                if (arc < 0) {
+                    return null;
+                }
+                output += arcOutput.get(arc);
+                state = arcTarget.get(arc);
+            }
+            return new int[]{state, output};
+        }
+
+        /** Returns the arc of state labeled c, or -1. */
+        private int arc(int state, char c) {
+            int lo = firstArc.get(state);
+            int hi = firstArc.get(state + 1) - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                char label = arcLabel.get(mid);
+                if (label < c) {
+                    lo = mid + 1;
+                } else if (label > c) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static class OpenState {
+        private boolean isFinal;
+        private final StringBuilder labels = new StringBuilder();
+        private final List<Integer> targets = new ArrayList<>();
+    }
+
+    private static class Signature {
+        private final int[] key;
+
+        Signature(int[] key) {
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Signature && Arrays.equals(key, ((Signature) o).key);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(key);
+        }
+    }
+}
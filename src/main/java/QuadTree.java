@@ -2,25 +2,31 @@ import java.util.Map;
 
 
 /**
+ * Addresses the tiles of the image quadtree. A tile at depth d is named by the path of
+ * quadrants (1 = upper left, 2 = upper right, 3 = lower left, 4 = lower right) that leads to
+ * it from the root, e.g. "142" at depth 3.
+ * <p>
+ * Tiles are located arithmetically rather than by walking tree nodes: the column of a point is
+ * found by bisecting the root's longitude range depth times, and its row by bisecting the
+ * latitude range, so no nodes exist and nothing is allocated until the tile names are output.
+ * Bisection uses the same midpoints, and the same tie-breaking on tile edges (upper and left
+ * quadrants win), that the tile images were cut along.
  * Created by changyeonclarapark on 7/12/16.
  */
 public class QuadTree {
-    private QTreeNode root;
+    /** Depth of the deepest tiles there are; rasters never go deeper. */
+    static final int MAX_DEPTH = 7;
+
+    private final double ulLat;
+    private final double ulLon;
+    private final double lrLat;
+    private final double lrLon;
 
     public QuadTree(double ulLat, double ulLon, double lrLat, double lrLon) {
-        root = new QTreeNode("root", ulLat, ulLon, lrLat, lrLon, 0);
-        root.UL = new QTreeNode("1", root.ulLat,
-                root.ulLon, (root.ulLat + root.lrLat) / 2, (root.ulLon + root.lrLon) / 2, 1);
-        root.UR = new QTreeNode("2", root.ulLat,
-                (root.ulLon + root.lrLon) / 2, (root.ulLat + root.lrLat) / 2, root.lrLon, 1);
-        root.LL = new QTreeNode("3", (root.ulLat + root.lrLat) / 2,
-                root.ulLon, root.lrLat, (root.lrLon + root.ulLon) / 2, 1);
-        root.LR = new QTreeNode("4", (root.ulLat + root.lrLat) / 2,
-                (root.ulLon + root.lrLon) / 2, root.lrLat, root.lrLon, 1);
-        root.UL.fillTree();
-        root.UR.fillTree();
-        root.LL.fillTree();
-        root.LR.fillTree();
+        this.ulLat = ulLat;
+        this.ulLon = ulLon;
+        this.lrLat = lrLat;
+        this.lrLon = lrLon;
     }
 
     /**
@@ -43,185 +49,158 @@ public class QuadTree {
         }
 
         //gets the tiles containing the corners
-        QTreeNode ulTile = root.getTile(ul, depth);
-        QTreeNode lrTile = root.getTile(lr, depth);
-
-        rasteredImageParams.put("raster_ul_lon", ulTile.ulLon);
-        rasteredImageParams.put("raster_ul_lat", ulTile.ulLat);
-        rasteredImageParams.put("raster_lr_lon", lrTile.lrLon);
-        rasteredImageParams.put("raster_lr_lat", lrTile.lrLat);
+        int ulColumn = column(ul.getX(), depth);
+        int ulRow = row(ul.getY(), depth);
+        int lrColumn = column(lr.getX(), depth);
+        int lrRow = row(lr.getY(), depth);
+        double ulTileUlLon = columnEdge(ulColumn, depth, false);
+        double ulTileLrLon = columnEdge(ulColumn, depth, true);
+        double ulTileUlLat = rowEdge(ulRow, depth, false);
+        double ulTileLrLat = rowEdge(ulRow, depth, true);
+        double lrTileLrLon = columnEdge(lrColumn, depth, true);
+        double lrTileLrLat = rowEdge(lrRow, depth, true);
+
+        rasteredImageParams.put("raster_ul_lon", ulTileUlLon);
+        rasteredImageParams.put("raster_ul_lat", ulTileUlLat);
+        rasteredImageParams.put("raster_lr_lon", lrTileLrLon);
+        rasteredImageParams.put("raster_lr_lat", lrTileLrLat);
 
         //finds the right and down distances of the intersection window
-        double intersectionWidth = lrTile.lrLon - ulTile.ulLon;
-        double intersectionHeight = ulTile.ulLat - lrTile.lrLat;
-        double tileWidth = ulTile.lrLon - ulTile.ulLon;
-        double tileHeight = ulTile.ulLat - ulTile.lrLat;
-        /**
-        int intersectionWidth = (int)((LRTile.lrLon - ULTile.ulLon)/distPerPixel);
-        int intersectionHeight = (int)((ULTile.ulLat - LRTile.lrLat)/latDistPerPixel);
-        int tileWidth = (int)((ULTile.lrLon - ULTile.ulLon)/distPerPixel);
-        int tileHeight = (int)((ULTile.ulLat - ULTile.lrLat)/latDistPerPixel);
-         */
-
-        /*System.out.println("intersection width " + intersectionWidth);
-        System.out.println("intersection height " + intersectionHeight);
-        System.out.println("tile width " + tileWidth);
-        System.out.println("tile height " + tileHeight);*/
-        
+        double intersectionWidth = lrTileLrLon - ulTileUlLon;
+        double intersectionHeight = ulTileUlLat - lrTileLrLat;
+        double tileWidth = ulTileLrLon - ulTileUlLon;
+        double tileHeight = ulTileUlLat - ulTileLrLat;
+
         //number of tiles to go to the right and down
         int tilesRight = (int) (Math.round(intersectionWidth / tileWidth));
         int tilesDown = (int) (Math.round(intersectionHeight / tileHeight));
 
-        /*Point potentialUR = new Point(ULTile.ulLon + (tileWidth * tilesRight), ULTile.ulLat);
-        Point potentialLL = new Point(ULTile.ulLon, ULTile.ulLat - (tileHeight * tilesDown));
-
-        while (!root.getTile(potentialUR, depth).contains(UR)) {
-            tilesRight++;
-            potentialUR = new Point(ULTile.ulLon + (tileWidth * tilesRight), ULTile.ulLat);
-        }
-        while (!root.getTile(potentialLL, depth).contains(LL)) {
-            tilesDown++;
-            potentialLL = new Point(ULTile.ulLon, ULTile.ulLat - (tileHeight * tilesDown));
-        }*/
-
-        //System.out.println("tiles right " + tilesRight);
-        //System.out.println("tiles down " + tilesDown);
-
-
-        Point[][] searchArray = new Point[tilesDown][tilesRight];
-
-        for (int i = 0; i < searchArray.length; i++) {
-            for (int j = 0; j < searchArray[i].length; j++) {
-                searchArray[i][j] = new Point((ulTile.ulLon + (tileWidth * j) + 0.000000001),
-                        (ulTile.ulLat - (tileHeight * i) - 0.000000001));
-            }
-        }
-
+        //each tile is looked up by a point just inside its upper left corner
         String[][] returnArray = new String[tilesDown][tilesRight];
-
         for (int i = 0; i < returnArray.length; i++) {
+            double lat = ulTileUlLat - (tileHeight * i) - 0.000000001;
             for (int j = 0; j < returnArray[i].length; j++) {
-                returnArray[i][j] = root.getTile(searchArray[i][j], depth).tileName + ".png";
+                double lon = ulTileUlLon + (tileWidth * j) + 0.000000001;
+                returnArray[i][j] = tileName(lon, lat, depth) + ".png";
             }
         }
-
         return returnArray;
     }
 
     /**
-     * Created by changyeonclarapark on 7/12/16.
+     * Returns the name of the tile at depth containing (lon, lat), or "root" if the point is
+     * outside the root tile.
      */
-    public class QTreeNode {
-        private double ulLat;
-        private double ulLon;
-        private double lrLat;
-        private double lrLon;
-
-        private String tileName;
-        private int depth;
-
-        private QTreeNode UL;
-        private QTreeNode UR;
-        private QTreeNode LL;
-        private QTreeNode LR;
-
-        public QTreeNode(String tileName, double ulLat, double ulLon,
-                         double lrLat, double lrLon, int depth) {
-            this.tileName = tileName;
-            this.ulLat = ulLat;
-            this.ulLon = ulLon;
-            this.lrLat = lrLat;
-            this.lrLon = lrLon;
-            this.depth = depth;
-        }
-
-        /**
-        public QTreeNode getUL() {
-            return this.UL;
-        }
-
-        public void setUL(QTreeNode newUL) {
-            this.UL = newUL;
-        }
-
-        public QTreeNode getUR() {
-            return this.UR;
+    public String tileName(double lon, double lat, int depth) {
+        if (depth == 0 || lon < ulLon || lon > lrLon || lat < lrLat || lat > ulLat) {
+            return "root";
         }
+        return tileName(column(lon, depth), row(lat, depth), depth);
+    }
 
-        public void setUR(QTreeNode newUR) {
-            this.UR = newUR;
+    /** Returns the name of the tile in the given column and row of the tiles at depth. */
+    static String tileName(int column, int row, int depth) {
+        if (depth == 0) {
+            return "root";
         }
-
-        public QTreeNode getLL() {
-            return this.LL;
+        char[] name = new char[depth];
+        for (int d = 0; d < depth; d++) {
+            int shift = depth - 1 - d;
+            name[d] = (char) ('1' + ((column >> shift) & 1) + 2 * ((row >> shift) & 1));
         }
+        return new String(name);
+    }
 
-        public void setLL(QTreeNode newLL) {
-            this.LL = newLL;
+    /**
+     * Returns the column of the tile with the given name, its depth being the name's length;
+     * the inverse of {@link #tileName(int, int, int)}. The name must be a quadrant path.
+     */
+    static int tileColumn(String name) {
+        int column = 0;
+        for (int d = 0; d < name.length(); d++) {
+            column = 2 * column + ((name.charAt(d) - '1') & 1);
         }
+        return column;
+    }
 
-        public QTreeNode getLR() {
-            return this.LR;
+    /** Returns the row of the tile with the given name, like {@link #tileColumn}. */
+    static int tileRow(String name) {
+        int row = 0;
+        for (int d = 0; d < name.length(); d++) {
+            row = 2 * row + ((name.charAt(d) - '1') >> 1);
         }
+        return row;
+    }
 
-        public void setLR(QTreeNode newLR) {
-            this.LR = newLR;
+    /**
+     * Returns the column, counted from 0 at the left edge, of the tiles at depth containing
+     * longitude lon. A longitude on the edge between two tiles belongs to the left one.
+     */
+    int column(double lon, int depth) {
+        double left = ulLon;
+        double right = lrLon;
+        int column = 0;
+        for (int d = 0; d < depth; d++) {
+            double mid = (left + right) / 2;
+            if (lon <= mid) {
+                right = mid;
+                column = 2 * column;
+            } else {
+                left = mid;
+                column = 2 * column + 1;
+            }
         }
-         */
+        return column;
+    }
 
-        public void fillTree() {
-            if (this.depth >= 7) {
-                return;
+    /**
+     * Returns the row, counted from 0 at the top edge, of the tiles at depth containing
+     * latitude lat. A latitude on the edge between two tiles belongs to the upper one.
+     */
+    int row(double lat, int depth) {
+        double top = ulLat;
+        double bottom = lrLat;
+        int row = 0;
+        for (int d = 0; d < depth; d++) {
+            double mid = (top + bottom) / 2;
+            if (lat >= mid) {
+                bottom = mid;
+                row = 2 * row;
             } else {
-                this.UL = new QTreeNode(this.tileName + "1", this.ulLat,
-                        this.ulLon, (this.ulLat + this.lrLat) / 2,
-                        (this.ulLon + this.lrLon) / 2, this.depth + 1);
-                //System.out.println("UL: " + this.UL.tileName);
-                this.UL.fillTree();
-                this.UR = new QTreeNode(this.tileName + "2", this.ulLat,
-                        (this.ulLon + this.lrLon) / 2, (this.ulLat + this.lrLat) / 2, this.lrLon,
-                        this.depth + 1);
-                //System.out.println("UR: " + this.UR.tileName);
-                this.UR.fillTree();
-                this.LL = new QTreeNode(this.tileName + "3", (this.ulLat + this.lrLat) / 2,
-                        this.ulLon, this.lrLat, (this.lrLon + this.ulLon) / 2, this.depth + 1);
-                //System.out.println("LL: " + this.LL.tileName);
-                this.LL.fillTree();
-                this.LR = new QTreeNode(this.tileName + "4", (this.ulLat + this.lrLat) / 2,
-                        (this.ulLon + this.lrLon) / 2, this.lrLat, this.lrLon, this.depth + 1);
-                //System.out.println("LR: " + this.LR.tileName);
-                this.LR.fillTree();
+                top = mid;
+                row = 2 * row + 1;
             }
         }
+        return row;
+    }
 
-        public QTreeNode getTile(Point corner, int dep) {
-            QTreeNode currTile = this;
-            int currDepth = dep;
-            while (currDepth != 0) {
-                if (currTile.UL.contains(corner)) {
-                    currTile = currTile.UL;
-                } else if (currTile.UR.contains(corner)) {
-                    currTile = currTile.UR;
-                } else if (currTile.LL.contains(corner)) {
-                    currTile = currTile.LL;
-                } else if (currTile.LR.contains(corner)) {
-                    currTile = currTile.LR;
-                }
-                currDepth--;
+    /** Returns the longitude of the left edge, or if right the right edge, of a column. */
+    double columnEdge(int column, int depth, boolean right) {
+        double left = ulLon;
+        double rightEdge = lrLon;
+        for (int d = depth - 1; d >= 0; d--) {
+            double mid = (left + rightEdge) / 2;
+            if (((column >> d) & 1) == 0) {
+                rightEdge = mid;
+            } else {
+                left = mid;
             }
-            System.out.println(currTile.tileName);
-            return currTile;
         }
+        return right ? rightEdge : left;
+    }
 
-        public boolean contains(Point corner) {
-            if (corner.getX() >= this.ulLon && corner.getX() <= this.lrLon) {
-                if (corner.getY() >= this.lrLat && corner.getY() <= this.ulLat) {
-                    return true;
-                }
+    /** Returns the latitude of the top edge, or if bottom the bottom edge, of a row. */
+    double rowEdge(int row, int depth, boolean bottom) {
+        double top = ulLat;
+        double bottomEdge = lrLat;
+        for (int d = depth - 1; d >= 0; d--) {
+            double mid = (top + bottomEdge) / 2;
+            if (((row >> d) & 1) == 0) {
+                bottomEdge = mid;
+            } else {
+                top = mid;
             }
-            return false;
         }
+        return bottom ? bottomEdge : top;
     }
 }
-
-
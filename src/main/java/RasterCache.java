@@ -0,0 +1,130 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of finished /raster images, already encoded, so that repeat views of the same tiles
+ * skip compositing and encoding altogether. Panning slightly usually leaves the tile grid
+ * unchanged, so many consecutive requests hit. Images are held as their raw encoded bytes,
+ * which binary responses write out as they are. Bounded by the total length of the encoded
+ * images and evicted least recently used first.
+ */
+public class RasterCache {
+    private final long capacityBytes;
+    /** Guarded by its own lock, as is weightBytes. */
+    private final LinkedHashMap<Key, byte[]> images = new LinkedHashMap<>(64, 0.75f, true);
+    private long weightBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public RasterCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    /** Returns the encoded image for key, or null on a miss. */
+    public byte[] get(Key key) {
+        byte[] image;
+        synchronized (images) {
+            image = images.get(key);
+        }
+        if (image == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return image;
+    }
+
+    public void put(Key key, byte[] image) {
+        if (image.length > capacityBytes) {
+            return;
+        }
+        synchronized (images) {
+            byte[] previous = images.put(key, image);
+            if (previous != null) {
+                weightBytes -= previous.length;
+            }
+            weightBytes += image.length;
+            Iterator<byte[]> eldest = images.values().iterator();
+            while (weightBytes > capacityBytes) {
+                weightBytes -= eldest.next().length;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public long capacityBytes() {
+        return capacityBytes;
+    }
+
+    /** Total length of the encoded images currently held. */
+    public long weightBytes() {
+        synchronized (images) {
+            return weightBytes;
+        }
+    }
+
+    public int size() {
+        synchronized (images) {
+            return images.size();
+        }
+    }
+
+    /**
+     * Identifies a raster image: its depth, corner tiles and bounds, which fix the tile grid
+     * and where a route lands on it, and the vertices of the route drawn on it, if any.
+     */
+    public static class Key {
+        private final List<Object> grid;
+        private final int[] route;
+
+        /**
+         * @param rasteredImageParams The raster's response parameters, as computed by
+         *                            {@link MapServer#getMapRaster}.
+         * @param route The route vertices drawn on the raster, or null for none.
+         */
+        public Key(Map<String, Object> rasteredImageParams, String ulTile, String lrTile,
+                   int[] route) {
+            this.grid = Arrays.asList(rasteredImageParams.get("depth"), ulTile, lrTile,
+                    rasteredImageParams.get("raster_ul_lon"),
+                    rasteredImageParams.get("raster_ul_lat"),
+                    rasteredImageParams.get("raster_lr_lon"),
+                    rasteredImageParams.get("raster_lr_lat"),
+                    rasteredImageParams.get("raster_width"),
+                    rasteredImageParams.get("raster_height"));
+            this.route = route;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return grid.equals(other.grid) && Arrays.equals(route, other.route);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * grid.hashCode() + Arrays.hashCode(route);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStreamImpl;
+
+/**
+ * Encodes rastered images for responses. Each thread keeps its own ImageWriter and its own
+ * output buffer, so after the first request on a thread encoding looks nothing up and allocates
+ * no stream: the writer is reset and writes straight into the reused buffer. A buffer that had to
+ * grow past {@link #MAX_RETAINED_BUFFER_BYTES} is let go once the image is encoded, so at most
+ * that much stays pinned per server thread: 200 MiB across Jetty's default pool of 200.
+ * <p>
+ * Any format ImageIO has a writer for can be used, e.g. "jpg", "png", or "webp" when a WebP
+ * plugin is on the classpath. For formats that support it, quality (0 to 1) sets the
+ * compression: for JPEG it trades image quality for size and speed; for PNG, which is always
+ * lossless, lower quality means stronger and slower deflate compression.
+ */
+public class RasterEncoder {
+    /** System property naming the image format of /raster responses; "jpg" by default. */
+    static final String FORMAT_PROPERTY = "bearmaps.encoder.format";
+    /**
+     * System property setting the compression quality, from 0 to 1. The default, 0.75, is what
+     * JPEG rasters have always been written at: ImageIO's default JPEG quality.
+     */
+    static final String QUALITY_PROPERTY = "bearmaps.encoder.quality";
+
+    /** Initial size of each thread's output buffer; a typical JPEG raster fits without growing. */
+    private static final int INITIAL_BUFFER_BYTES = 256 << 10;
+    /** Largest output buffer a thread keeps between images. */
+    static final int MAX_RETAINED_BUFFER_BYTES = 1 << 20;
+
+    private final String format;
+    private final float quality;
+    private final String mimeType;
+    private final ThreadLocal<ImageWriter> writers;
+    private final ThreadLocal<BufferOutputStream> buffers =
+            ThreadLocal.withInitial(BufferOutputStream::new);
+
+    private final LongAdder encodes = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final LongAdder encodedBytes = new LongAdder();
+
+    /**
+     * @throws IllegalArgumentException if ImageIO has no writer for format.
+     */
+    public RasterEncoder(String format, float quality) {
+        this.format = format.toLowerCase(Locale.ROOT);
+        this.quality = quality;
+        ImageWriter probe = newWriter(this.format);
+        String[] mimeTypes = probe.getOriginatingProvider().getMIMETypes();
+        this.mimeType = mimeTypes != null && mimeTypes.length > 0
+                ? mimeTypes[0] : "image/" + this.format;
+        probe.dispose();
+        this.writers = ThreadLocal.withInitial(() -> newWriter(this.format));
+    }
+
+    /** Returns the encoder configured by the system properties. */
+    public static RasterEncoder fromProperties() {
+        return new RasterEncoder(System.getProperty(FORMAT_PROPERTY, "jpg"),
+                Float.parseFloat(System.getProperty(QUALITY_PROPERTY, "0.75")));
+    }
+
+    private static ImageWriter newWriter(String format) {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IllegalArgumentException("No image writer for format " + format);
+        }
+        return writers.next();
+    }
+
+    public String format() {
+        return format;
+    }
+
+    public float quality() {
+        return quality;
+    }
+
+    /** The MIME type of the encoded images, e.g. "image/jpeg". */
+    public String mimeType() {
+        return mimeType;
+    }
+
+    /**
+     * Encodes im into the calling thread's buffer. The result is only valid until the same
+     * thread encodes another image.
+     */
+    public Encoded encode(BufferedImage im) throws IOException {
+        long start = System.nanoTime();
+        ImageWriter writer = writers.get();
+        BufferOutputStream out = buffers.get();
+        out.clear();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+        }
+        writer.setOutput(out);
+        try {
+            writer.write(null, new IIOImage(im, null, null), param);
+            out.flush();
+        } catch (IOException | RuntimeException e) {
+            writer.abort();
+            out.release();
+            throw e;
+        } finally {
+            writer.reset();
+        }
+        long nanos = System.nanoTime() - start;
+        encodes.increment();
+        encodeNanos.add(nanos);
+        encodedBytes.add(out.size());
+        Encoded encoded = new Encoded(out.buffer(), out.size(), nanos);
+        out.release();
+        return encoded;
+    }
+
+    public long encodeCount() {
+        return encodes.sum();
+    }
+
+    public long encodeNanos() {
+        return encodeNanos.sum();
+    }
+
+    public long encodedBytes() {
+        return encodedBytes.sum();
+    }
+
+    /** An encoded image: the first length bytes of a thread's buffer. */
+    public static class Encoded {
+        private final byte[] bytes;
+        private final int length;
+        private final long nanos;
+
+        Encoded(byte[] bytes, int length, long nanos) {
+            this.bytes = bytes;
+            this.length = length;
+            this.nanos = nanos;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        /** Time taken to encode, in milliseconds. */
+        public double millis() {
+            return nanos / 1e6;
+        }
+
+        /** Returns a copy of the encoded bytes, which stays valid. */
+        public byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        public void writeTo(OutputStream os) throws IOException {
+            os.write(bytes, 0, length);
+        }
+    }
+
+    /** Seekable in-memory ImageOutputStream over a growable byte array. */
+    private static class BufferOutputStream extends ImageOutputStreamImpl {
+        private byte[] buffer = new byte[INITIAL_BUFFER_BYTES];
+        private int length;
+
+        void clear() {
+            length = 0;
+            streamPos = 0;
+            flushedPos = 0;
+            bitOffset = 0;
+        }
+
+        byte[] buffer() {
+            return buffer;
+        }
+
+        /**
+         * Swaps a buffer grown past the retained maximum for a new one of the initial size.
+         * Images already encoded keep the old buffer until they are done with.
+         */
+        void release() {
+            if (buffer.length > MAX_RETAINED_BUFFER_BYTES) {
+                buffer = new byte[INITIAL_BUFFER_BYTES];
+                clear();
+            }
+        }
+
+        int size() {
+            return length;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            return streamPos < length ? buffer[(int) streamPos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (streamPos >= length) {
+                return -1;
+            }
+            int n = (int) Math.min(len, length - streamPos);
+            System.arraycopy(buffer, (int) streamPos, b, off, n);
+            streamPos += n;
+            return n;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            flushBits();
+            ensureCapacity(streamPos + 1);
+            buffer[(int) streamPos++] = (byte) b;
+            length = (int) Math.max(length, streamPos);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            flushBits();
+            ensureCapacity(streamPos + len);
+            System.arraycopy(b, off, buffer, (int) streamPos, len);
+            streamPos += len;
+            length = (int) Math.max(length, streamPos);
+        }
+
+        private void ensureCapacity(long capacity) {
+            if (capacity > buffer.length) {
+                buffer = Arrays.copyOf(buffer, (int) Math.max(capacity, 2L * buffer.length));
+            }
+        }
+    }
+}
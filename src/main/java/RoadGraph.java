@@ -0,0 +1,33 @@
+/**
+ * The road graph as routing sees it: dense int vertex ids in [0, vertexCount()) with
+ * coordinates and OSM ids, and the outgoing edges of vertex v at the edge indices
+ * [firstEdge(v), endEdge(v)). Implementations differ only in where the arrays live:
+ * {@link CompactGraph} keeps them on the Java heap, {@link MappedGraph} reads them straight
+ * out of a memory-mapped snapshot file.
+ */
+public interface RoadGraph {
+    int vertexCount();
+
+    int edgeCount();
+
+    double lat(int v);
+
+    double lon(int v);
+
+    long osmId(int v);
+
+    int firstEdge(int v);
+
+    int endEdge(int v);
+
+    int degree(int v);
+
+    int target(int e);
+
+    double weight(int e);
+
+    /**
+     * Euclidean distance between two vertices, in the same units as the edge weights.
+     */
+    double distance(int u, int v);
+}
@@ -0,0 +1,54 @@
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.util.Arrays;
+
+/**
+ * First pass of two-pass ingest: reads only the ways of an OSM file and collects the ids of the
+ * nodes that lie on an allowed highway (see {@link MapDBHandler#ALLOWED_HIGHWAY_TYPES}). The
+ * second pass then keeps coordinates for just those nodes, instead of for every node in the
+ * file until the ways have been read. Named nodes need no entry, since their coordinates are
+ * taken straight from their own element.
+ */
+public class RoadNodeScanner extends DefaultHandler {
+    private final LongIndex roadNodes = new LongIndex();
+    private long[] refs = new long[64];
+    private int refCount;
+    private boolean inWay;
+    private boolean allowedHighway;
+
+    /** Ids of the nodes on allowed highways, in order of first reference. */
+    public LongIndex roadNodes() {
+        return roadNodes;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes)
+            throws SAXException {
+        if (qName.equals("way")) {
+            inWay = true;
+            allowedHighway = false;
+            refCount = 0;
+        } else if (inWay && qName.equals("nd")) {
+            if (refCount == refs.length) {
+                refs = Arrays.copyOf(refs, 2 * refCount);
+            }
+            refs[refCount++] = Long.parseLong(attributes.getValue("ref"));
+        } else if (inWay && qName.equals("tag") && attributes.getValue("k").equals("highway")) {
+            allowedHighway = MapDBHandler.ALLOWED_HIGHWAY_TYPES.contains(attributes.getValue("v"));
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        if (qName.equals("way")) {
+            inWay = false;
+            if (allowedHighway) {
+                for (int i = 0; i < refCount; i++) {
+                    roadNodes.add(refs[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * A shortest path algorithm over the vertex ids of a RoadGraph. Implementations keep
+ * per-query working state and are not thread-safe; MapServer holds one router per thread.
+ */
+public interface Router {
+    /**
+     * Returns the vertices of a shortest path from start to end, inclusive, or an empty array
+     * if end cannot be reached from start.
+     */
+    int[] route(int start, int end);
+
+    /** Returns the number of vertices settled by the last query. */
+    int settledCount();
+}
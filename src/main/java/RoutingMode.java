@@ -0,0 +1,75 @@
+import java.util.function.Supplier;
+
+/**
+ * The shortest path algorithms findAndDrawRoute can be configured with. Each mode runs its
+ * preprocessing, if any, over the road graph once and then hands out per-thread routers that
+ * share the preprocessed data.
+ */
+public enum RoutingMode {
+    /** Plain A* with the straight-line distance heuristic; no preprocessing. */
+    ASTAR("astar") {
+        @Override
+        Supplier<Router> prepare(RoadGraph graph) {
+            return () -> new AStarRouter(graph);
+        }
+    },
+
+    /** Bidirectional A* from both ends with the straight-line distance heuristic. */
+    BIDIRECTIONAL_ASTAR("bidirectional") {
+        @Override
+        Supplier<Router> prepare(RoadGraph graph) {
+            return () -> new BidirectionalAStarRouter(graph);
+        }
+    },
+
+    /**
+     * A* with landmark lower bounds; the number of landmarks is read from the
+     * bearmaps.landmarks system property.
+     */
+    ALT("alt") {
+        @Override
+        Supplier<Router> prepare(RoadGraph graph) {
+            Landmarks landmarks = new Landmarks(graph,
+                    Integer.getInteger(LANDMARK_COUNT_PROPERTY, DEFAULT_LANDMARK_COUNT));
+            return () -> new AStarRouter(graph, landmarks);
+        }
+    },
+
+    /** Bidirectional upward search over a contraction hierarchy built at startup. */
+    CONTRACTION_HIERARCHIES("ch") {
+        @Override
+        Supplier<Router> prepare(RoadGraph graph) {
+            ContractionHierarchy hierarchy = new ContractionHierarchy(graph);
+            return () -> new CHRouter(hierarchy);
+        }
+    };
+
+    /** System property holding the number of landmarks the ALT mode precomputes. */
+    public static final String LANDMARK_COUNT_PROPERTY = "bearmaps.landmarks";
+
+    private static final int DEFAULT_LANDMARK_COUNT = 16;
+
+    private final String key;
+
+    RoutingMode(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Runs any preprocessing this mode needs and returns a factory of routers over the graph.
+     */
+    abstract Supplier<Router> prepare(RoadGraph graph);
+
+    /**
+     * Returns the mode with the given short name, such as "astar" or "ch".
+     * @throws IllegalArgumentException if no mode has that name.
+     */
+    public static RoutingMode fromKey(String key) {
+        for (RoutingMode mode : values()) {
+            if (mode.key.equalsIgnoreCase(key)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown routing mode: " + key);
+    }
+}
@@ -0,0 +1,297 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Pre-rendered pyramid of super-tiles: aligned square blocks of tiles at chosen depths,
+ * composited ahead of time and kept decoded in one packed file. A raster whose tiles all lie in
+ * super-tiles is then sliced out of them, a few long copies per scanline straight from the
+ * memory-mapped file, with no tile decoded or cached on the heap.
+ * <p>
+ * The packed file, written offline by {@link #main}, is a header, an index, then the pixels:
+ * <pre>
+ *     header: magic, format version, tile size, number of super-tiles
+ *     index:  depth, size in tiles, column and row of the upper left tile, and file offset
+ *             of each super-tile
+ *     pixels: each super-tile's TYPE_INT_RGB pixels, row by row, little-endian
+ * </pre>
+ * Super-tiles are addressed by the {@link QuadTree} columns and rows of their tiles. Each depth
+ * has super-tiles of a single size, which cover it whole. The file is not checked against the
+ * tiles, so it must be rebuilt whenever they change.
+ */
+public class SuperTiles {
+    /**
+     * Super-tile sizes built by default, in tiles per side; each depth gets the largest that
+     * fits it.
+     */
+    static final int[] DEFAULT_SIZES = {2, 4};
+
+    private static final int MAGIC = 0x424d5354; // "BMST"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 * 4;
+    private static final int INDEX_ENTRY_BYTES = 4 * 4 + 8;
+
+    private final int tileSize;
+    /** The size of the super-tiles at each depth, or 0 if there are none. */
+    private final int[] sizes = new int[QuadTree.MAX_DEPTH + 1];
+    /** Super-tile pixels by {@link #key}. */
+    private final Map<Long, IntBuffer> pixels = new HashMap<>();
+
+    private SuperTiles(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Opens the packed super-tiles in file, mapping it read-only in as few pieces as buffers
+     * allow, each super-tile a view of one of them.
+     * @return the super-tiles, or null if file is missing or unusable for tiles of tileSize.
+     */
+    static SuperTiles open(File file, int tileSize) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC
+                    || header.getInt() != VERSION || header.getInt() != tileSize) {
+                System.out.println("Ignoring unusable super-tiles " + file);
+                return null;
+            }
+            int count = header.getInt();
+            ByteBuffer index = ByteBuffer.allocate(count * INDEX_ENTRY_BYTES);
+            channel.read(index, HEADER_BYTES);
+            index.flip();
+            SuperTiles superTiles = new SuperTiles(tileSize);
+            ByteBuffer mapped = null;
+            long mappedOffset = 0;
+            for (int e = 0; e < count; e++) {
+                int depth = index.getInt();
+                int size = index.getInt();
+                int column = index.getInt();
+                int row = index.getInt();
+                long offset = index.getLong();
+                long bytes = 4L * size * tileSize * size * tileSize;
+                /* Super-tiles are laid out in index order, so a new piece starts wherever
+                 * the next would not fit a buffer. */
+                if (mapped == null || offset + bytes - mappedOffset > mapped.capacity()) {
+                    mappedOffset = offset;
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                            Math.min(channel.size() - offset, Integer.MAX_VALUE));
+                }
+                ByteBuffer view = mapped.duplicate();
+                ((Buffer) view).position((int) (offset - mappedOffset));
+                ((Buffer) view).limit((int) (offset - mappedOffset + bytes));
+                superTiles.pixels.put(key(depth, size, column, row),
+                        view.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer());
+                superTiles.sizes[depth] = Math.max(superTiles.sizes[depth], size);
+            }
+            return superTiles;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static long key(int depth, int size, int column, int row) {
+        return ((long) depth << 56) | ((long) size << 48) | ((long) column << 24) | row;
+    }
+
+    /** Returns the size of the super-tiles at depth, or 0 if there are none. */
+    public int size(int depth) {
+        return depth < sizes.length ? sizes[depth] : 0;
+    }
+
+    /**
+     * Returns whether every tile of the given grid, named as for {@link #composite}, lies in a
+     * super-tile, so that composite slices the grid rather than returning null.
+     */
+    public boolean covers(String[][] names) {
+        return sources(names) != null;
+    }
+
+    /**
+     * Draws the given grid of tiles, named row by row from the upper left as by
+     * {@link QuadTree#intersectionQuery}, into a new image, exactly as
+     * {@link TileCompositor#composite} would.
+     * @return the image, or null if some tile of the grid is in no super-tile.
+     */
+    public BufferedImage composite(String[][] names) {
+        IntBuffer[][] sources = sources(names);
+        if (sources == null) {
+            return null;
+        }
+        int depth = names[0][0].length() - ".png".length();
+        int size = size(depth);
+        String ulName = names[0][0].substring(0, depth);
+        int ulColumn = QuadTree.tileColumn(ulName);
+        int ulRow = QuadTree.tileRow(ulName);
+        int columns = names[0].length;
+        BufferedImage image = new BufferedImage(columns * tileSize, names.length * tileSize,
+                BufferedImage.TYPE_INT_RGB);
+        int[] out = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int width = image.getWidth();
+        int superWidth = size * tileSize;
+        IntStream.range(0, names.length).parallel().forEach(i -> {
+            int row = (ulRow + i) % size;
+            int j = 0;
+            while (j < columns) {
+                /* Tiles side by side in one super-tile are copied as one run per scanline. */
+                IntBuffer source = sources[i][j].duplicate();
+                int column = (ulColumn + j) % size;
+                int run = 1;
+                while (j + run < columns && sources[i][j + run] == sources[i][j]) {
+                    run++;
+                }
+                for (int y = 0; y < tileSize; y++) {
+                    source.position((row * tileSize + y) * superWidth + column * tileSize);
+                    source.get(out, (i * tileSize + y) * width + j * tileSize, run * tileSize);
+                }
+                j += run;
+            }
+        });
+        return image;
+    }
+
+    /**
+     * Returns the super-tile holding each tile of the grid, or null if some tile is in none.
+     * A grid of anything else, e.g. "root" tiles off the edge of the map, is left to the
+     * compositor.
+     */
+    private IntBuffer[][] sources(String[][] names) {
+        int depth = names[0][0].length() - ".png".length();
+        int size = size(depth);
+        if (size == 0) {
+            return null;
+        }
+        String ulName = names[0][0].substring(0, depth);
+        int ulColumn = QuadTree.tileColumn(ulName);
+        int ulRow = QuadTree.tileRow(ulName);
+        int columns = names[0].length;
+        IntBuffer[][] sources = new IntBuffer[names.length][columns];
+        for (int i = 0; i < names.length; i++) {
+            for (int j = 0; j < columns; j++) {
+                int column = ulColumn + j;
+                int row = ulRow + i;
+                if (!names[i][j].equals(QuadTree.tileName(column, row, depth) + ".png")) {
+                    return null;
+                }
+                sources[i][j] = pixels.get(key(depth, size, column - column % size,
+                        row - row % size));
+                if (sources[i][j] == null) {
+                    return null;
+                }
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Renders super-tiles at the given depths, each of the largest of the given sizes that fits
+     * it, from the tiles that loader reads and packs them into file, replacing it atomically.
+     * Tiles are read and composited just as the server would, so sliced rasters are identical
+     * to composited ones.
+     */
+    static void build(File file, TileCache.Loader loader, int tileSize, int[] depths,
+                      int[] sizes)
+            throws IOException {
+        List<int[]> superTiles = new ArrayList<>();
+        for (int depth : depths) {
+            int tilesPerSide = 1 << depth;
+            int size = Arrays.stream(sizes).filter(s -> s <= tilesPerSide).max().orElse(0);
+            if (size == 0 || depth > QuadTree.MAX_DEPTH) {
+                continue;
+            }
+            for (int row = 0; row < tilesPerSide; row += size) {
+                for (int column = 0; column < tilesPerSide; column += size) {
+                    superTiles.add(new int[]{depth, size, column, row});
+                }
+            }
+        }
+
+        TileCompositor compositor = new TileCompositor(new TileCache(64L * 1024 * 1024, loader),
+                tileSize);
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tileSize);
+            out.writeInt(superTiles.size());
+            long offset = HEADER_BYTES + (long) superTiles.size() * INDEX_ENTRY_BYTES;
+            for (int[] superTile : superTiles) {
+                for (int field : superTile) {
+                    out.writeInt(field);
+                }
+                out.writeLong(offset);
+                offset += 4L * superTile[1] * tileSize * superTile[1] * tileSize;
+            }
+            ByteBuffer row = ByteBuffer.allocate(4 * tileSize * Arrays.stream(sizes).max()
+                    .orElse(1)).order(ByteOrder.LITTLE_ENDIAN);
+            for (int[] superTile : superTiles) {
+                int depth = superTile[0];
+                int size = superTile[1];
+                String[][] names = new String[size][size];
+                for (int i = 0; i < size; i++) {
+                    for (int j = 0; j < size; j++) {
+                        names[i][j] = QuadTree.tileName(superTile[2] + j, superTile[3] + i,
+                                depth) + ".png";
+                    }
+                }
+                int[] image = ((DataBufferInt) compositor.composite(names).getRaster()
+                        .getDataBuffer()).getData();
+                int width = size * tileSize;
+                for (int y = 0; y < width; y++) {
+                    row.clear();
+                    row.asIntBuffer().put(image, y * width, width);
+                    out.write(row.array(), 0, 4 * width);
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Offline build step, run from the server's working directory:
+     * <pre>
+     *     java -cp target/classes SuperTiles [depth ...]
+     * </pre>
+     * builds 4x4 super-tiles (2x2 at depth 1) at the given depths into the file the server
+     * loads. The
+     * depths most worth building are those requested most, as counted under "raster_depths"
+     * at the server's /stats endpoint.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: SuperTiles depth [depth ...]");
+            return;
+        }
+        int[] depths = Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        File file = new File(MapServer.superTilesPath());
+        long start = System.nanoTime();
+        build(file, MapServer.tileLoader(TileArchive.open(new File(MapServer.tileArchivePath()))),
+                MapServer.TILE_SIZE, depths, DEFAULT_SIZES);
+        System.out.printf("Wrote %s (%d MB) in %.1f s%n", file, file.length() >> 20,
+                (System.nanoTime() - start) / 1e9);
+    }
+}
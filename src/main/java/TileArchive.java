@@ -0,0 +1,237 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * All the tile images packed into one file, so that a deployment ships one artifact instead of
+ * thousands of small PNGs, and reading a tile costs no file lookup, open or close. The archive
+ * is written offline by {@link #main} and is a header, an index, then the tile files' bytes:
+ * <pre>
+ *     header: magic, format version, number of tiles
+ *     index:  name (length, then UTF-8 bytes), offset, length and CRC-32 of each tile
+ *     data:   the tile files, shallowest tiles first
+ * </pre>
+ * The reader maps the whole archive read-only and hands out tiles as slices of the mapping,
+ * so their bytes are never copied onto the heap. ETags are derived from the CRCs in the index,
+ * the same way {@link TileFiles} derives them from loose files.
+ */
+public class TileArchive {
+    private static final int MAGIC = 0x424d5441; // "BMTA"
+    private static final int VERSION = 1;
+
+    private final MappedByteBuffer data;
+    private final Map<String, Entry> entries;
+
+    private TileArchive(MappedByteBuffer data, Map<String, Entry> entries) {
+        this.data = data;
+        this.entries = entries;
+    }
+
+    /**
+     * Opens and maps the archive in file.
+     * @return the archive, or null if file is missing or not a tile archive.
+     */
+    static TileArchive open(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                System.out.println("Tile archives over 2 GB are not supported: " + file);
+                return null;
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (data.getInt() != MAGIC || data.getInt() != VERSION) {
+                System.out.println("Ignoring unusable tile archive " + file);
+                return null;
+            }
+            int count = data.getInt();
+            Map<String, Entry> entries = new HashMap<>(count * 2);
+            for (int t = 0; t < count; t++) {
+                byte[] name = new byte[data.getShort()];
+                data.get(name);
+                entries.put(new String(name, StandardCharsets.UTF_8),
+                        new Entry((int) data.getLong(), data.getInt(), data.getInt()));
+            }
+            return new TileArchive(data, entries);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /** Returns the bytes of the tile file with the given name, or null if there is none. */
+    public ByteBuffer get(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        ByteBuffer bytes = data.duplicate();
+        bytes.position(entry.offset);
+        bytes.limit(entry.offset + entry.length);
+        return bytes.slice();
+    }
+
+    /** Returns the ETag of the tile with the given name, or null if there is none. */
+    public String etag(String name) {
+        Entry entry = entries.get(name);
+        return entry == null ? null : TileFiles.etag(entry.crc & 0xffffffffL, entry.length);
+    }
+
+    /**
+     * Decodes the tile with the given name.
+     * @throws FileNotFoundException if there is no such tile.
+     */
+    public BufferedImage read(String name) throws IOException {
+        ByteBuffer bytes = get(name);
+        if (bytes == null) {
+            throw new FileNotFoundException("No tile " + name + " in the tile archive");
+        }
+        return ImageIO.read(new BufferInputStream(bytes));
+    }
+
+    /**
+     * Packs the tile files of dir, those named as {@link TileFiles} serves them, into archive,
+     * replacing it atomically.
+     * @return the number of tiles packed.
+     */
+    static int pack(File dir, File archive) throws IOException {
+        File[] tiles = dir.listFiles((d, name) -> name.equals("root.png")
+                || TileFiles.fileName(Integer.toString(name.length() - ".png".length()), name)
+                != null);
+        if (tiles == null) {
+            throw new FileNotFoundException("No tile directory " + dir);
+        }
+        /* Shallow tiles, which every zoomed out view uses, end up together at the front. */
+        Arrays.sort(tiles, Comparator.comparing((File f) -> !f.getName().equals("root.png"))
+                .thenComparingInt(f -> f.getName().length()).thenComparing(File::getName));
+
+        byte[][] names = new byte[tiles.length][];
+        long offset = 4 + 4 + 4;
+        for (int t = 0; t < tiles.length; t++) {
+            names[t] = tiles[t].getName().getBytes(StandardCharsets.UTF_8);
+            offset += 2 + names[t].length + 8 + 4 + 4;
+        }
+        File tmp = new File(archive.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tiles.length);
+            for (int t = 0; t < tiles.length; t++) {
+                byte[] bytes = Files.readAllBytes(tiles[t].toPath());
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                out.writeShort(names[t].length);
+                out.write(names[t]);
+                out.writeLong(offset);
+                out.writeInt(bytes.length);
+                out.writeInt((int) crc.getValue());
+                offset += bytes.length;
+            }
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("Tiles too large for one archive: " + offset + " bytes");
+            }
+            for (File tile : tiles) {
+                Files.copy(tile.toPath(), out);
+            }
+        }
+        Files.move(tmp.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return tiles.length;
+    }
+
+    /**
+     * Offline packing step, run from the server's working directory:
+     * <pre>
+     *     java -cp target/classes TileArchive
+     * </pre>
+     * packs img/ into the archive the server loads, see MapServer#tileArchivePath.
+     */
+    public static void main(String[] args) throws IOException {
+        File archive = new File(MapServer.tileArchivePath());
+        long start = System.nanoTime();
+        int count = pack(new File(MapServer.IMG_ROOT), archive);
+        System.out.printf("Packed %d tiles into %s (%d KB) in %.1f s%n", count, archive,
+                archive.length() >> 10, (System.nanoTime() - start) / 1e9);
+    }
+
+    /** Where a tile's bytes are in the archive. */
+    private static class Entry {
+        private final int offset;
+        private final int length;
+        private final int crc;
+
+        Entry(int offset, int length, int crc) {
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+        }
+    }
+
+    /**
+     * Seekable ImageInputStream reading a tile in place. Handing ImageIO a plain InputStream
+     * instead would make it cache the whole tile again, in a temporary file by default.
+     */
+    private static class BufferInputStream extends ImageInputStreamImpl {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public long length() {
+            return buffer.limit();
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            return streamPos < buffer.limit() ? buffer.get((int) streamPos++) & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (len == 0) {
+                return 0;
+            }
+            if (streamPos >= buffer.limit()) {
+                return -1;
+            }
+            int n = (int) Math.min(len, buffer.limit() - streamPos);
+            ByteBuffer source = buffer.duplicate();
+            source.position((int) streamPos);
+            source.get(b, off, n);
+            streamPos += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe cache of decoded tile images, bounded by the bytes their pixels take up rather
+ * than by a tile count. Tiles are evicted least recently used first. Loading is single-flight:
+ * when several requests miss on the same tile at once, one of them decodes it and the others
+ * wait for that result instead of decoding it again.
+ * <p>
+ * Tiles can also be loaded ahead of need with {@link #prefetch}. A prefetched tile counts as a
+ * prefetch hit the first time a request finds it resident, and as wasted if it is evicted
+ * before that.
+ * <p>
+ * Cached images are shared between requests, so callers must only ever read them.
+ */
+public class TileCache {
+    /** Decodes a tile from its name. */
+    public interface Loader {
+        BufferedImage load(String name) throws IOException;
+    }
+
+    private final long capacityBytes;
+    private final Loader loader;
+    /** Resident tiles in access order; guarded by its own lock, as is weightBytes. */
+    private final LinkedHashMap<String, BufferedImage> tiles = new LinkedHashMap<>(64, 0.75f,
+            true);
+    private long weightBytes;
+    /** Loads in progress, so that concurrent misses can wait for them. */
+    private final ConcurrentHashMap<String, CompletableFuture<BufferedImage>> loading =
+            new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /** Prefetched tiles that no request has found resident yet. */
+    private final Set<String> prefetched = ConcurrentHashMap.newKeySet();
+    private final LongAdder prefetches = new LongAdder();
+    private final LongAdder prefetchHits = new LongAdder();
+    private final LongAdder prefetchesWasted = new LongAdder();
+
+    public TileCache(long capacityBytes, Loader loader) {
+        this.capacityBytes = capacityBytes;
+        this.loader = loader;
+    }
+
+    /**
+     * Returns the tile with the given name, loading it on a miss.
+     * @throws IOException if the tile could not be loaded, by this or a concurrent call.
+     */
+    public BufferedImage get(String name) throws IOException {
+        BufferedImage image = lookup(name);
+        if (image != null) {
+            hits.increment();
+            if (prefetched.remove(name)) {
+                prefetchHits.increment();
+            }
+            return image;
+        }
+        misses.increment();
+        CompletableFuture<BufferedImage> load = new CompletableFuture<>();
+        CompletableFuture<BufferedImage> inFlight = loading.putIfAbsent(name, load);
+        if (inFlight != null) {
+            image = await(inFlight);
+            prefetched.remove(name);
+            return image;
+        }
+        return load(name, load, false);
+    }
+
+    /**
+     * Loads the tile with the given name unless it is resident or already being loaded. Does
+     * not count as a hit or miss, nor make a resident tile more recently used.
+     * @return whether the tile was loaded.
+     * @throws IOException if the tile could not be loaded.
+     */
+    public boolean prefetch(String name) throws IOException {
+        if (contains(name)) {
+            return false;
+        }
+        CompletableFuture<BufferedImage> load = new CompletableFuture<>();
+        if (loading.putIfAbsent(name, load) != null) {
+            return false;
+        }
+        return load(name, load, true) != null;
+    }
+
+    /** Returns whether the tile with the given name is resident, without touching it. */
+    public boolean contains(String name) {
+        synchronized (tiles) {
+            return tiles.containsKey(name);
+        }
+    }
+
+    /**
+     * Loads the tile with the given name and completes load, which the caller has registered
+     * in loading, with it.
+     * @return the tile; or, when prefetching a tile that turns out to be resident, null.
+     */
+    private BufferedImage load(String name, CompletableFuture<BufferedImage> load,
+                               boolean prefetch) throws IOException {
+        try {
+            BufferedImage image = lookup(name);
+            boolean loaded = image == null;
+            if (loaded) {
+                loads.increment();
+                image = loader.load(name);
+                if (image == null) {
+                    throw new IOException("Could not decode tile " + name);
+                }
+                if (prefetch) {
+                    prefetches.increment();
+                    prefetched.add(name);
+                }
+                insert(name, image);
+            }
+            load.complete(image);
+            return prefetch && !loaded ? null : image;
+        } catch (IOException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(name);
+        }
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /** Number of tiles actually decoded; misses that waited on another load are not counted. */
+    public long loadCount() {
+        return loads.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /** Number of tiles decoded by {@link #prefetch}, also counted as loads. */
+    public long prefetchCount() {
+        return prefetches.sum();
+    }
+
+    /** Number of prefetched tiles later found resident by a request. */
+    public long prefetchHitCount() {
+        return prefetchHits.sum();
+    }
+
+    /** Number of prefetched tiles evicted before any request found them. */
+    public long prefetchWastedCount() {
+        return prefetchesWasted.sum();
+    }
+
+    public long capacityBytes() {
+        return capacityBytes;
+    }
+
+    /** Bytes of pixel data currently held. */
+    public long weightBytes() {
+        synchronized (tiles) {
+            return weightBytes;
+        }
+    }
+
+    public int size() {
+        synchronized (tiles) {
+            return tiles.size();
+        }
+    }
+
+    /** Approximate heap taken by the pixels of image. */
+    static long weigh(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks()
+                * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    private BufferedImage lookup(String name) {
+        synchronized (tiles) {
+            return tiles.get(name);
+        }
+    }
+
+    private void insert(String name, BufferedImage image) {
+        long weight = weigh(image);
+        synchronized (tiles) {
+            BufferedImage previous = tiles.put(name, image);
+            if (previous != null) {
+                weightBytes -= weigh(previous);
+            }
+            weightBytes += weight;
+            Iterator<Map.Entry<String, BufferedImage>> eldest = tiles.entrySet().iterator();
+            while (weightBytes > capacityBytes && eldest.hasNext()) {
+                Map.Entry<String, BufferedImage> entry = eldest.next();
+                if (entry.getValue() == image) {
+                    break;
+                }
+                weightBytes -= weigh(entry.getValue());
+                eldest.remove();
+                evictions.increment();
+                if (prefetched.remove(entry.getKey())) {
+                    prefetchesWasted.increment();
+                }
+            }
+        }
+    }
+
+    private static BufferedImage await(CompletableFuture<BufferedImage> load) throws IOException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TileCache[%d tiles, %d/%d bytes, %d hits, %d misses, %d loads, "
+                + "%d evictions]", size(), weightBytes(), capacityBytes, hitCount(), missCount(),
+                loadCount(), evictionCount());
+    }
+}
@@ -0,0 +1,162 @@
+import org.eclipse.jetty.server.HttpOutput;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the raw tile files of the image directory at <code>/tiles/{depth}/{name}.png</code>,
+ * so browsers can fetch and cache tiles one by one instead of receiving a stitched raster.
+ * A tile's name is its quadtree path, e.g. <code>/tiles/3/142.png</code>, or
+ * <code>/tiles/0/root.png</code> for the root.
+ * <p>
+ * Tiles are read from the {@link TileArchive} if there is one, whose single memory mapping
+ * is handed to the server connector as it is, without being copied onto the heap. Loose files
+ * are otherwise read whole for each response; mapping each small file would cost more than
+ * reading it, and leave a mapping behind until the next GC. Each response carries a strong
+ * ETag, derived from the file's contents, and long-lived Cache-Control headers; a request
+ * whose If-None-Match carries the current ETag gets an empty 304 reply, without the tile
+ * being read.
+ */
+public class TileFiles {
+    /** How long clients and proxies may cache a tile without revalidating it: one year. */
+    static final String CACHE_CONTROL = "public, max-age=31536000";
+
+    private final String root;
+    /** The packed tiles, or null to serve the files under root. */
+    private final TileArchive archive;
+    /** ETags of the tiles served so far, recomputed if a file changes. */
+    private final ConcurrentHashMap<String, Tag> tags = new ConcurrentHashMap<>();
+
+    /**
+     * @param root Directory holding the tiles, ending in a separator.
+     * @param archive The packed tiles, served instead of the directory; or null.
+     */
+    public TileFiles(String root, TileArchive archive) {
+        this.root = root;
+        this.archive = archive;
+    }
+
+    /** Returns the URL path of the tile with the given file name, e.g. "142.png". */
+    static String path(int depth, String fileName) {
+        return "/tiles/" + depth + "/" + fileName;
+    }
+
+    /**
+     * Returns the file name of the tile at the given path segments, or null if they do not
+     * name a tile. Only quadtree paths of the stated depth are accepted, so requests can never
+     * reach outside the tile directory.
+     */
+    static String fileName(String depth, String file) {
+        if (depth == null || file == null || !file.endsWith(".png")) {
+            return null;
+        }
+        String name = file.substring(0, file.length() - ".png".length());
+        if (depth.equals("0")) {
+            return name.equals("root") ? file : null;
+        }
+        if (!depth.equals(Integer.toString(name.length()))) {
+            return null;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) < '1' || name.charAt(i) > '4') {
+                return null;
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Writes the tile at the given path segments to response.
+     * @return whether the tile exists; nothing has been written if it does not.
+     */
+    public boolean serve(String depth, String file, String ifNoneMatch,
+                         HttpServletResponse response) throws IOException {
+        String fileName = fileName(depth, file);
+        if (fileName == null) {
+            return false;
+        }
+        if (archive != null) {
+            ByteBuffer bytes = archive.get(fileName);
+            if (bytes == null) {
+                return false;
+            }
+            if (!notModified(archive.etag(fileName), ifNoneMatch, response)) {
+                send(bytes, response);
+            }
+            return true;
+        }
+        File tileFile = new File(root + fileName);
+        if (!tileFile.isFile()) {
+            return false;
+        }
+        /* The ETag is recomputed, from bytes read anyway, only if the file has changed. */
+        long modified = tileFile.lastModified();
+        Tag tag = tags.get(fileName);
+        byte[] bytes = null;
+        if (tag == null || tag.length != tileFile.length() || tag.modified != modified) {
+            bytes = Files.readAllBytes(tileFile.toPath());
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            tag = new Tag(bytes.length, modified, etag(crc.getValue(), bytes.length));
+            tags.put(fileName, tag);
+        }
+        if (!notModified(tag.etag, ifNoneMatch, response)) {
+            send(ByteBuffer.wrap(bytes != null ? bytes : Files.readAllBytes(tileFile.toPath())),
+                    response);
+        }
+        return true;
+    }
+
+    /**
+     * Sets the caching headers of a tile with the given ETag, and replies 304 if ifNoneMatch
+     * carries it.
+     * @return whether the 304 reply was sent, so the tile need not be.
+     */
+    private static boolean notModified(String etag, String ifNoneMatch,
+                                       HttpServletResponse response) {
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", CACHE_CONTROL);
+        if (ifNoneMatch != null && (ifNoneMatch.equals("*") || ifNoneMatch.contains(etag))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        return false;
+    }
+
+    private static void send(ByteBuffer bytes, HttpServletResponse response) throws IOException {
+        response.setContentType("image/png");
+        response.setContentLength(bytes.remaining());
+        OutputStream out = response.getOutputStream();
+        if (out instanceof HttpOutput) {
+            ((HttpOutput) out).sendContent(bytes);
+        } else {
+            Channels.newChannel(out).write(bytes);
+        }
+    }
+
+    /** Returns the ETag of a tile with the given CRC-32 and length. */
+    static String etag(long crc, long length) {
+        return String.format("\"%08x-%x\"", crc, length);
+    }
+
+    /** A tile's ETag, with the file length and modification time it was computed for. */
+    private static class Tag {
+        private final long length;
+        private final long modified;
+        private final String etag;
+
+        Tag(long length, long modified, String etag) {
+            this.length = length;
+            this.modified = modified;
+            this.etag = etag;
+        }
+    }
+}
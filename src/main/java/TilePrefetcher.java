@@ -0,0 +1,153 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Warms the {@link TileCache} with the tiles the next raster is likely to need: the ring of
+ * tiles around the current grid, for a pan, then the children at depth + 1 of its middle, for
+ * a zoom in. Prefetching runs on its own small pool of minimum priority daemon threads behind a
+ * bounded queue; tiles that do not fit in the queue are dropped rather than waited for, so live
+ * requests never queue behind prefetches. Thread priorities are ignored on Linux, so it is by
+ * queueing tiles only once a raster has been built that they do not compete with its tiles.
+ */
+public class TilePrefetcher {
+    private final TileCache tiles;
+    private final ThreadPoolExecutor pool;
+    /** Tiles queued and not loaded yet, so that overlapping rasters queue them once. */
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    /** Tiles that could not be loaded, so that they are not tried again. */
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param threads Threads loading tiles; at least 1.
+     * @param queueCapacity Tiles that may wait to be loaded.
+     */
+    public TilePrefetcher(TileCache tiles, int threads, int queueCapacity) {
+        this.tiles = tiles;
+        this.pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "tile-prefetch");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the neighbors and children of the given grid of tiles, named row by row from the
+     * upper left as by {@link QuadTree#intersectionQuery}, that are not resident yet. Call it
+     * only once the raster of that grid has been built.
+     */
+    public void afterRaster(String[][] names) {
+        for (String name : candidates(names)) {
+            if (tiles.contains(name) || missing.contains(name) || !pending.add(name)) {
+                continue;
+            }
+            try {
+                pool.execute(() -> load(name));
+                queued.increment();
+            } catch (RejectedExecutionException e) {
+                pending.remove(name);
+                dropped.increment();
+            }
+        }
+    }
+
+    private void load(String name) {
+        try {
+            tiles.prefetch(name);
+        } catch (IOException e) {
+            missing.add(name);
+        } finally {
+            pending.remove(name);
+        }
+    }
+
+    /**
+     * Returns the file names of the tiles worth prefetching after a raster of the given grid:
+     * first the ring of tiles bordering it, then the children of the tiles in its middle half,
+     * which a zoom in about the center shows. Tiles outside the map are left out.
+     */
+    static List<String> candidates(String[][] names) {
+        List<String> candidates = new ArrayList<>();
+        int rows = names.length;
+        int columns = names[0].length;
+        if (names[0][0].equals("root")) {
+            addTiles(candidates, 1, 0, 2, 0, 2);
+            return candidates;
+        }
+        /* Find where the grid is from any tile in it; edge cells may be "root" stand-ins. */
+        int depth = -1;
+        int ulColumn = 0;
+        int ulRow = 0;
+        for (int i = 0; i < rows && depth < 0; i++) {
+            for (int j = 0; j < columns && depth < 0; j++) {
+                String name = names[i][j];
+                if (!name.equals("root.png")) {
+                    String path = name.substring(0, name.length() - ".png".length());
+                    depth = path.length();
+                    ulColumn = QuadTree.tileColumn(path) - j;
+                    ulRow = QuadTree.tileRow(path) - i;
+                }
+            }
+        }
+        if (depth < 0) {
+            return candidates;
+        }
+        int tilesPerSide = 1 << depth;
+        for (int row = ulRow - 1; row <= ulRow + rows; row++) {
+            for (int column = ulColumn - 1; column <= ulColumn + columns; column++) {
+                boolean border = row < ulRow || row == ulRow + rows
+                        || column < ulColumn || column == ulColumn + columns;
+                if (border && row >= 0 && row < tilesPerSide && column >= 0
+                        && column < tilesPerSide) {
+                    candidates.add(QuadTree.tileName(column, row, depth) + ".png");
+                }
+            }
+        }
+        /* Zooming in about the center shows the middle half of the grid's children. */
+        addTiles(candidates, depth + 1, 2 * ulColumn + columns / 2,
+                2 * ulColumn + (3 * columns + 1) / 2, 2 * ulRow + rows / 2,
+                2 * ulRow + (3 * rows + 1) / 2);
+        return candidates;
+    }
+
+    /**
+     * Adds the tiles at depth in the given ranges of columns and rows, ends exclusive, that are
+     * on the map; none if there are no tiles that deep.
+     */
+    private static void addTiles(List<String> candidates, int depth, int fromColumn,
+                                    int toColumn, int fromRow, int toRow) {
+        if (depth > QuadTree.MAX_DEPTH) {
+            return;
+        }
+        int tilesPerSide = 1 << depth;
+        for (int row = Math.max(0, fromRow); row < Math.min(tilesPerSide, toRow); row++) {
+            for (int column = Math.max(0, fromColumn); column < Math.min(tilesPerSide, toColumn);
+                    column++) {
+                candidates.add(QuadTree.tileName(column, row, depth) + ".png");
+            }
+        }
+    }
+
+    /** Number of tiles queued for prefetching. */
+    public long queuedCount() {
+        return queued.sum();
+    }
+
+    /** Number of tiles not prefetched because the queue was full. */
+    public long droppedCount() {
+        return dropped.sum();
+    }
+}
@@ -50,7 +50,7 @@ $( document ).ready(function() {
 
     // Search bar
     $( "#tags" ).autocomplete({
-          source: search,
+          source: search + "?limit=10&fuzzy=2",
           minLength: 2,
           select: function (event, ui) {
               $.get({
@@ -274,11 +274,11 @@ $( document ).ready(function() {
         $.get({
             async: false,
             url: raster_server,
-            data: params,
+            data: $.extend({mode: "tiles"}, params),
             success: function(data) {
                 if (data.query_success) {
                     console.log("Updating map");
-                    map.src = "data:image/jpg;base64," + data.b64_encoded_image_data;
+                    showTiles(data.tile_grid);
                     ullon_bound = data.raster_ul_lon;
                     ullat_bound = data.raster_ul_lat;
                     lrlon_bound = data.raster_lr_lon;
@@ -300,6 +300,19 @@ $( document ).ready(function() {
         });
     }
 
+    // Lays out the grid of tile URLs from the raster server. The browser fetches the tiles in
+    // parallel and caches them, so panning back over a tile costs no request at all.
+    function showTiles(grid) {
+        var tiles = [];
+        for (var i = 0; i < grid.length; i++) {
+            for (var j = 0; j < grid[i].length; j++) {
+                tiles.push($('<img/>', {src: host + grid[i][j], class: 'tile', draggable: false})
+                    .css({left: j * 256, top: i * 256}));
+            }
+        }
+        $(map).empty().append(tiles);
+    }
+
     function updateT() {
         map.style.transform = "translateX(" + tx + "px) translateY(" + ty + "px)";
         dest.style.transform = "translateX(" + (tx+rtx) + "px) translateY(" + (ty+rty) + "px)";
@@ -0,0 +1,73 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares TileCompositor's parallel direct copies against the Graphics.drawImage path for tile
+ * grids from 1x1 to 8x6, using synthetic 256x256 tiles. The Graphics path draws tiles as ImageIO
+ * decodes the PNGs in img/ (TYPE_3BYTE_BGR), which is what it was given before tiles were
+ * cached as TYPE_INT_RGB; the direct path copies the INT_RGB tiles. Not a unit test; run its
+ * main method, e.g. from the test classpath:
+ * <pre>
+ *     java -cp target/classes:target/test-classes CompositeBenchmark
+ * </pre>
+ */
+public class CompositeBenchmark {
+    private static final int[][] GRIDS = {{1, 1}, {2, 2}, {3, 2}, {4, 3}, {6, 4}, {8, 6}};
+    private static final int TILES = 64;
+
+    public static void main(String[] args) {
+        BufferedImage[] decoded = new BufferedImage[TILES];
+        Random random = new Random(15);
+        for (int t = 0; t < TILES; t++) {
+            decoded[t] = new BufferedImage(MapServer.TILE_SIZE, MapServer.TILE_SIZE,
+                    BufferedImage.TYPE_3BYTE_BGR);
+            byte[] bytes = ((DataBufferByte) decoded[t].getRaster().getDataBuffer()).getData();
+            random.nextBytes(bytes);
+        }
+        TileCompositor graphicsPath = new TileCompositor(new TileCache(Long.MAX_VALUE,
+                name -> decoded[Integer.parseInt(name)]), MapServer.TILE_SIZE);
+        TileCompositor directPath = new TileCompositor(new TileCache(Long.MAX_VALUE,
+                name -> TileCompositor.toIntRgb(decoded[Integer.parseInt(name)])),
+                MapServer.TILE_SIZE);
+
+        System.out.printf("%-6s %14s %14s %8s%n", "grid", "graphics (ms)", "direct (ms)",
+                "speedup");
+        for (int[] grid : GRIDS) {
+            String[][] names = new String[grid[1]][grid[0]];
+            for (int i = 0; i < names.length; i++) {
+                for (int j = 0; j < names[i].length; j++) {
+                    names[i][j] = Integer.toString((i * 7 + j * 3) % TILES);
+                }
+            }
+            int[] expected = pixels(graphicsPath.compositeWithGraphics(names));
+            if (!Arrays.equals(expected, pixels(directPath.composite(names)))) {
+                throw new AssertionError("Compositing paths disagree on " + grid[0] + "x"
+                        + grid[1]);
+            }
+            int iterations = Math.max(20, 2000 / (grid[0] * grid[1]));
+            double graphics = time(() -> graphicsPath.compositeWithGraphics(names), iterations);
+            double direct = time(() -> directPath.composite(names), iterations);
+            System.out.printf("%-6s %14.3f %14.3f %7.1fx%n", grid[0] + "x" + grid[1], graphics,
+                    direct, graphics / direct);
+        }
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0,
+                image.getWidth());
+    }
+
+    /** Returns the mean milliseconds per run, after as many warm-up runs. */
+    private static double time(Runnable run, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            run.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            run.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / iterations;
+    }
+}
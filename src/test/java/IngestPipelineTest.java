@@ -0,0 +1,151 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IngestPipelineTest {
+    /** Small enough that the fixture spans many node and way batches. */
+    private static final int BATCH_SIZE = 4;
+    private static final int GRID = 8;
+    /** A node no way finds in the file, splitting the ways through it. */
+    private static final long MISSING = 999;
+
+    private static File osm;
+
+    private static long nodeId(int row, int column) {
+        return 1 + row * GRID + column;
+    }
+
+    /**
+     * A grid of nodes, some named, joined by residential ways along each row and column, plus
+     * ways that are not allowed roads. One row's way runs through a node missing from the file.
+     */
+    @BeforeClass
+    public static void writeFixture() throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<osm version=\"0.6\">\n");
+        for (int row = 0; row < GRID; row++) {
+            for (int column = 0; column < GRID; column++) {
+                xml.append(String.format("  <node id=\"%d\" lat=\"%.7f\" lon=\"%.7f\">%n",
+                        nodeId(row, column), 37.87 - 0.001 * row + 0.0001 * column,
+                        -122.26 + 0.001 * column));
+                /* Runs of named nodes cross the batch boundaries. */
+                if ((row * GRID + column) % 5 < 3) {
+                    xml.append(String.format("    <tag k=\"name\" v=\"%s Hall %c\"/>%n",
+                            column % 2 == 0 ? "Wheeler" : "Dwinelle's", 'A' + row));
+                }
+                xml.append("  </node>\n");
+            }
+        }
+        for (int row = 0; row < GRID; row++) {
+            xml.append("  <way id=\"").append(100 + row).append("\">\n");
+            for (int column = 0; column < GRID; column++) {
+                xml.append("    <nd ref=\"").append(nodeId(row, column)).append("\"/>\n");
+                if (row == 2 && column == 3) {
+                    xml.append("    <nd ref=\"").append(MISSING).append("\"/>\n");
+                }
+            }
+            xml.append("    <tag k=\"highway\" v=\"residential\"/>\n  </way>\n");
+        }
+        for (int column = 0; column < GRID; column++) {
+            xml.append("  <way id=\"").append(200 + column).append("\">\n");
+            for (int row = 0; row < GRID; row++) {
+                xml.append("    <nd ref=\"").append(nodeId(row, column)).append("\"/>\n");
+            }
+            xml.append("    <tag k=\"highway\" v=\"")
+                    .append(column % 3 == 0 ? "footway" : "tertiary").append("\"/>\n");
+            xml.append("  </way>\n");
+        }
+        xml.append("  <way id=\"300\">\n    <nd ref=\"1\"/>\n    <nd ref=\"64\"/>\n")
+                .append("    <tag k=\"building\" v=\"yes\"/>\n  </way>\n</osm>\n");
+
+        osm = File.createTempFile("ingest", ".osm");
+        osm.deleteOnExit();
+        Files.write(osm.toPath(), xml.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] nameIndexBytes(GraphDB g) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            g.getNameIndex().write(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Asserts that actual has the same graph arrays and name index as expected. */
+    private static void assertSameIngest(GraphDB expected, GraphDB actual) throws IOException {
+        RoadGraph e = expected.getGraph();
+        RoadGraph a = actual.getGraph();
+        assertEquals(e.vertexCount(), a.vertexCount());
+        assertEquals(e.edgeCount(), a.edgeCount());
+        for (int v = 0; v < e.vertexCount(); v++) {
+            assertEquals(e.osmId(v), a.osmId(v));
+            assertEquals(e.lat(v), a.lat(v), 0);
+            assertEquals(e.lon(v), a.lon(v), 0);
+            assertEquals(e.firstEdge(v), a.firstEdge(v));
+            assertEquals(e.endEdge(v), a.endEdge(v));
+        }
+        for (int edge = 0; edge < e.edgeCount(); edge++) {
+            assertEquals(e.target(edge), a.target(edge));
+            assertEquals(e.weight(edge), a.weight(edge), 0);
+        }
+        assertArrayEquals(nameIndexBytes(expected), nameIndexBytes(actual));
+    }
+
+    private static int vertex(RoadGraph graph, long osmId) {
+        for (int v = 0; v < graph.vertexCount(); v++) {
+            if (graph.osmId(v) == osmId) {
+                return v;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean adjacent(RoadGraph graph, int u, int v) {
+        for (int edge = graph.firstEdge(u); edge < graph.endEdge(u); edge++) {
+            if (graph.target(edge) == v) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testSequentialParse() {
+        GraphDB g = new GraphDB(osm, 1, false, IngestPipeline.BATCH_SIZE);
+        RoadGraph graph = g.getGraph();
+        assertEquals(GRID * GRID, graph.vertexCount());
+        /* The missing node splits row 2 between its 4th and 5th nodes. */
+        assertTrue(adjacent(graph, vertex(graph, nodeId(2, 2)), vertex(graph, nodeId(2, 3))));
+        assertFalse(adjacent(graph, vertex(graph, nodeId(2, 3)), vertex(graph, nodeId(2, 4))));
+        assertEquals(-1, vertex(graph, MISSING));
+        /* Footways and buildings add no edges down column 0. */
+        assertFalse(adjacent(graph, vertex(graph, nodeId(0, 0)), vertex(graph, nodeId(1, 0))));
+        assertEquals(2 * GRID, g.getNameIndex().size());
+    }
+
+    @Test
+    public void testConcurrentIngestMatchesSequentialParse() throws IOException {
+        GraphDB sequential = new GraphDB(osm, 1, false, IngestPipeline.BATCH_SIZE);
+        assertSameIngest(sequential, new GraphDB(osm, 1, false, BATCH_SIZE));
+        assertSameIngest(sequential, new GraphDB(osm, 8, false, BATCH_SIZE));
+    }
+
+    @Test
+    public void testTwoPassIngestMatchesSinglePass() throws IOException {
+        GraphDB singlePass = new GraphDB(osm, 1, false, IngestPipeline.BATCH_SIZE);
+        assertSameIngest(singlePass, new GraphDB(osm, 1, true, IngestPipeline.BATCH_SIZE));
+        assertSameIngest(singlePass, new GraphDB(osm, 1, true, BATCH_SIZE));
+        assertSameIngest(singlePass, new GraphDB(osm, 8, true, BATCH_SIZE));
+    }
+}
@@ -0,0 +1,66 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class KdTreeTest {
+    private static final int N = 5000;
+
+    private static double dist2(double[] xs, double[] ys, int i, double x, double y) {
+        return (xs[i] - x) * (xs[i] - x) + (ys[i] - y) * (ys[i] - y);
+    }
+
+    /**
+     * Compare nearest and k-nearest queries against a brute-force scan over random points,
+     * including many duplicate coordinates to exercise the median selection.
+     */
+    @Test
+    public void testNearestMatchesBruteForce() {
+        Random r = new Random(61);
+        double[] xs = new double[N];
+        double[] ys = new double[N];
+        for (int i = 0; i < N; i++) {
+            xs[i] = r.nextInt(200) / 10.0;
+            ys[i] = r.nextDouble() * 20;
+        }
+        CompactGraph.Builder builder = new CompactGraph.Builder();
+        for (int i = 0; i < N; i++) {
+            builder.addVertex(i, xs[i], ys[i]);
+        }
+        KdTree tree = new KdTree(builder.build());
+        for (int q = 0; q < 500; q++) {
+            double x = r.nextDouble() * 24 - 2;
+            double y = r.nextDouble() * 24 - 2;
+            int best = 0;
+            for (int i = 1; i < N; i++) {
+                if (dist2(xs, ys, i, x, y) < dist2(xs, ys, best, x, y)) {
+                    best = i;
+                }
+            }
+            assertEquals(dist2(xs, ys, best, x, y),
+                    dist2(xs, ys, tree.nearest(x, y), x, y), 0);
+
+            int[] k = tree.nearest(x, y, 8);
+            assertEquals(8, k.length);
+            assertEquals(dist2(xs, ys, best, x, y), dist2(xs, ys, k[0], x, y), 0);
+            for (int i = 1; i < k.length; i++) {
+                assertEquals(true, dist2(xs, ys, k[i - 1], x, y) <= dist2(xs, ys, k[i], x, y));
+            }
+            int closer = 0;
+            for (int i = 0; i < N; i++) {
+                if (dist2(xs, ys, i, x, y) < dist2(xs, ys, k[7], x, y)) {
+                    closer++;
+                }
+            }
+            assertEquals(true, closer < 8);
+        }
+    }
+
+    @Test
+    public void testEmptyTree() {
+        KdTree tree = new KdTree(new CompactGraph.Builder().build());
+        assertEquals(-1, tree.nearest(1, 1));
+        assertEquals(0, tree.nearest(1, 1, 3).length);
+    }
+}
@@ -0,0 +1,39 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LongIndexTest {
+    @Test
+    public void testIdsInInsertionOrder() {
+        LongIndex index = new LongIndex(2);
+        int count = 10000;
+        /* Spread out and negative keys, enough to grow the table many times over. */
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, index.add((i - 5000) * 7919L));
+        }
+        assertEquals(count, index.size());
+        for (int i = 0; i < count; i++) {
+            long key = (i - 5000) * 7919L;
+            assertEquals(i, index.indexOf(key));
+            assertEquals(key, index.key(i));
+            assertEquals(i, index.add(key));
+        }
+        assertEquals(count, index.size());
+    }
+
+    @Test
+    public void testMisses() {
+        LongIndex index = new LongIndex();
+        assertEquals(-1, index.indexOf(0));
+        assertEquals(0, index.add(0));
+        assertEquals(1, index.add(Long.MIN_VALUE));
+        assertEquals(0, index.indexOf(0));
+        assertEquals(-1, index.indexOf(1));
+        assertEquals(-1, index.indexOf(Long.MAX_VALUE));
+        /* Absent keys are misses wherever they hash, past the keys present or not. */
+        for (long key = 2; key < 1000; key++) {
+            assertEquals(-1, index.indexOf(key));
+        }
+        assertEquals(2, index.size());
+    }
+}
@@ -0,0 +1,115 @@
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class NameIndexTest {
+    private static NameIndex index(String... names) {
+        NameIndex.Builder builder = new NameIndex.Builder();
+        for (int i = 0; i < names.length; i++) {
+            builder.add(names[i], 37 + i, -122 - i, 100 + i);
+        }
+        return builder.build();
+    }
+
+    /** Writes the index out and reads it back, as the graph snapshot does. */
+    private static NameIndex roundTrip(NameIndex index) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.write(new DataOutputStream(bytes));
+        return NameIndex.read(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    @Test
+    public void testLookupWordsAndOrdinals() throws IOException {
+        NameIndex index = roundTrip(index("Sather Gate", "Sather Tower", "Safeway", "S",
+                "Soda Hall", "Sather Gate!", "?"));
+        assertEquals(6, index.size());
+        assertEquals(new HashSet<>(Arrays.asList("Sather Gate!", "Sather Tower")),
+                new HashSet<>(index.lookupWords("sath")));
+        assertEquals(new HashSet<>(Arrays.asList("Sather Gate!", "Sather Tower", "Safeway")),
+                new HashSet<>(index.lookupWords("sa")));
+        assertEquals(5, index.lookupWords("").size());
+        assertEquals(Collections.emptyList(), index.lookupWords("sathers"));
+        assertEquals(Collections.singletonList("S"), index.lookupWords("s"));
+        assertEquals(Collections.singletonList(null), index("Soda").lookupWords("s"));
+        assertNull(index.lookupWords("xy"));
+        /* "", "s", "safeway", "sather gate", "sather tower", "soda hall" */
+        assertEquals(0, index.ordinal(""));
+        assertEquals(3, index.ordinal("sather gate"));
+        assertEquals(5, index.ordinal("soda hall"));
+        assertEquals(-1, index.ordinal("sather"));
+    }
+
+    @Test
+    public void testLocations() throws IOException {
+        NameIndex index = roundTrip(index("Top Dog", "Cafe Strada", "top dog!"));
+        List<Map<String, Object>> locations = index.locations("top dog");
+        assertEquals(2, locations.size());
+        assertEquals("Top Dog", locations.get(0).get("name"));
+        assertEquals(37.0, locations.get(0).get("lat"));
+        assertEquals(-122.0, locations.get(0).get("lon"));
+        assertEquals(100L, locations.get(0).get("id"));
+        assertEquals("top dog!", locations.get(1).get("name"));
+        assertEquals(102L, locations.get(1).get("id"));
+        assertNull(index.locations("Top Dog"));
+        assertNull(index.locations("top"));
+    }
+
+    @Test
+    public void testTopCompletions() {
+        NameIndex index = index("Safeway", "Sather Gate", "Sather Tower", "Safeway",
+                "Soda Hall", "Sather Gate", "Safeway", "Shattuck", "Bancroft");
+        assertEquals(Arrays.asList("Safeway", "Sather Gate", "Shattuck"),
+                index.topCompletions("s", 3));
+        assertEquals(Arrays.asList("Sather Gate", "Sather Tower"),
+                index.topCompletions("sat", 10));
+        assertEquals(Collections.singletonList("Safeway"), index.topCompletions("", 1));
+        assertEquals(Collections.emptyList(), index.topCompletions("x", 3));
+    }
+
+    @Test
+    public void testFuzzyCompletions() {
+        NameIndex index = index("Sather Gate", "Sather Tower", "Telegraph Avenue",
+                "Telegraph Avenue", "Tele-Hub", "Cafe Strada", "Sather Gate");
+        assertEquals(Arrays.asList("Sather Gate", "Sather Tower"),
+                index.fuzzyCompletions("sather gat", 2, 10));
+        assertEquals(Collections.singletonList("Telegraph Avenue"),
+                index.fuzzyCompletions("telegrph", 1, 10));
+        assertEquals(Arrays.asList("Tele-Hub", "Telegraph Avenue"),
+                index.fuzzyCompletions("telehb", 2, 10));
+        /* Exact prefixes come first, however well ranked the typo matches. */
+        assertEquals(Arrays.asList("Sather Tower", "Sather Gate"),
+                index.fuzzyCompletions("sather t", 2, 10));
+        assertEquals(Collections.emptyList(), index.fuzzyCompletions("sx", 2, 10));
+        assertEquals(Collections.singletonList("Cafe Strada"),
+                index.fuzzyCompletions("cafe strada", 0, 10));
+    }
+
+    @Test
+    public void testWordCompletions() throws IOException {
+        NameIndex index = roundTrip(index("Wheeler Hall", "Brewed Awakening Cafe", "Soda Hall",
+                "Cafe Strada", "Cafe Strada", "Hall of Cafes", "Wheeler"));
+        assertEquals(Arrays.asList("Soda Hall", "Wheeler Hall", "Hall of Cafes"),
+                index.wordCompletions("hall", 10));
+        assertEquals(Arrays.asList("Cafe Strada", "Hall of Cafes", "Brewed Awakening Cafe"),
+                index.wordCompletions("caf", 10));
+        assertEquals(Collections.singletonList("Wheeler Hall"),
+                index.wordCompletions("hall whe", 10));
+        assertEquals(Collections.singletonList("Hall of Cafes"),
+                index.wordCompletions("hall cafe", 10));
+        assertEquals(Collections.singletonList("Cafe Strada"),
+                index.wordCompletions("cafe", 1));
+        assertEquals(Collections.emptyList(), index.wordCompletions("strada hall", 10));
+        assertEquals(Collections.emptyList(), index.wordCompletions("  ", 10));
+    }
+}
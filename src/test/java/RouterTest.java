@@ -0,0 +1,201 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RouterTest {
+    private static final double EPSILON = 1e-9;
+
+    /**
+     * Builds a connected random road-like graph: a jittered grid with some edges removed, plus
+     * a few isolated vertices that no path can reach.
+     */
+    static CompactGraph randomGraph(long seed, int side) {
+        Random r = new Random(seed);
+        CompactGraph.Builder builder = new CompactGraph.Builder();
+        int[][] ids = new int[side][side];
+        double[][] lat = new double[side][side];
+        double[][] lon = new double[side][side];
+        for (int i = 0; i < side; i++) {
+            for (int j = 0; j < side; j++) {
+                lat[i][j] = i + r.nextDouble() * 0.5;
+                lon[i][j] = j + r.nextDouble() * 0.5;
+                ids[i][j] = builder.addVertex(i * side + j, lat[i][j], lon[i][j]);
+            }
+        }
+        for (int i = 0; i < side; i++) {
+            for (int j = 0; j < side; j++) {
+                if (j + 1 < side && (i == 0 || r.nextInt(5) > 0)) {
+                    builder.addEdge(ids[i][j], ids[i][j + 1], dist(lat[i][j], lon[i][j],
+                            lat[i][j + 1], lon[i][j + 1]) * (1 + r.nextDouble()));
+                }
+                if (i + 1 < side && (j == 0 || r.nextInt(5) > 0)) {
+                    builder.addEdge(ids[i][j], ids[i + 1][j], dist(lat[i][j], lon[i][j],
+                            lat[i + 1][j], lon[i + 1][j]) * (1 + r.nextDouble()));
+                }
+            }
+        }
+        builder.addVertex(-1, side + 1, side + 1);
+        builder.addVertex(-2, side + 2, side + 2);
+        builder.addEdge(side * side, side * side + 1, 1.5);
+        return builder.build();
+    }
+
+    private static double dist(double lat1, double lon1, double lat2, double lon2) {
+        return Math.sqrt((lat1 - lat2) * (lat1 - lat2) + (lon1 - lon2) * (lon1 - lon2));
+    }
+
+    /** Reference single-source Dijkstra, O(V^2). */
+    static double[] dijkstra(CompactGraph graph, int source) {
+        double[] d = new double[graph.vertexCount()];
+        boolean[] done = new boolean[graph.vertexCount()];
+        Arrays.fill(d, Double.POSITIVE_INFINITY);
+        d[source] = 0;
+        for (int round = 0; round < graph.vertexCount(); round++) {
+            int u = -1;
+            for (int v = 0; v < graph.vertexCount(); v++) {
+                if (!done[v] && (u == -1 || d[v] < d[u])) {
+                    u = v;
+                }
+            }
+            if (d[u] == Double.POSITIVE_INFINITY) {
+                break;
+            }
+            done[u] = true;
+            for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                d[graph.target(e)] = Math.min(d[graph.target(e)], d[u] + graph.weight(e));
+            }
+        }
+        return d;
+    }
+
+    /** Returns the length of a path, failing if consecutive vertices are not adjacent. */
+    static double pathLength(CompactGraph graph, int[] path) {
+        double length = 0;
+        for (int i = 0; i + 1 < path.length; i++) {
+            double best = Double.POSITIVE_INFINITY;
+            for (int e = graph.firstEdge(path[i]); e < graph.endEdge(path[i]); e++) {
+                if (graph.target(e) == path[i + 1]) {
+                    best = Math.min(best, graph.weight(e));
+                }
+            }
+            assertTrue("Path uses a missing edge.", best < Double.POSITIVE_INFINITY);
+            length += best;
+        }
+        return length;
+    }
+
+    /** Checks that path is a shortest start-end path, or empty exactly when end is unreachable. */
+    static void checkRoute(CompactGraph graph, double[] expected, int start, int end, int[] path) {
+        if (expected[end] == Double.POSITIVE_INFINITY) {
+            assertEquals(0, path.length);
+            return;
+        }
+        assertEquals(start, path[0]);
+        assertEquals(end, path[path.length - 1]);
+        assertEquals(expected[end], pathLength(graph, path), EPSILON);
+    }
+
+    @Test
+    public void testAStarFindsShortestPaths() {
+        CompactGraph graph = randomGraph(3, 25);
+        AStarRouter router = new AStarRouter(graph);
+        Random r = new Random(5);
+        for (int q = 0; q < 40; q++) {
+            int start = r.nextInt(graph.vertexCount());
+            double[] expected = dijkstra(graph, start);
+            for (int k = 0; k < 10; k++) {
+                int end = r.nextInt(graph.vertexCount());
+                checkRoute(graph, expected, start, end, router.route(start, end));
+            }
+        }
+    }
+
+    @Test
+    public void testBidirectionalAStarFindsShortestPaths() {
+        CompactGraph graph = randomGraph(12, 25);
+        Router[] routers = {new BidirectionalAStarRouter(graph),
+            new BidirectionalAStarRouter(graph, new Landmarks(graph, 4))};
+        Random r = new Random(13);
+        for (int q = 0; q < 40; q++) {
+            int start = r.nextInt(graph.vertexCount());
+            double[] expected = dijkstra(graph, start);
+            for (int k = 0; k < 10; k++) {
+                int end = r.nextInt(graph.vertexCount());
+                for (Router router : routers) {
+                    checkRoute(graph, expected, start, end, router.route(start, end));
+                }
+            }
+            checkRoute(graph, expected, start, start, routers[0].route(start, start));
+        }
+    }
+
+    @Test
+    public void testContractionHierarchyFindsShortestPaths() {
+        CompactGraph graph = randomGraph(4, 25);
+        CHRouter router = new CHRouter(new ContractionHierarchy(graph));
+        Random r = new Random(6);
+        for (int q = 0; q < 40; q++) {
+            int start = r.nextInt(graph.vertexCount());
+            double[] expected = dijkstra(graph, start);
+            for (int k = 0; k < 10; k++) {
+                int end = r.nextInt(graph.vertexCount());
+                checkRoute(graph, expected, start, end, router.route(start, end));
+            }
+            checkRoute(graph, expected, start, start, router.route(start, start));
+        }
+    }
+
+    @Test
+    public void testLandmarksFindShortestPaths() {
+        CompactGraph graph = randomGraph(8, 25);
+        Landmarks landmarks = new Landmarks(graph, 6);
+        AStarRouter router = new AStarRouter(graph, landmarks);
+        Random r = new Random(9);
+        for (int q = 0; q < 40; q++) {
+            int start = r.nextInt(graph.vertexCount());
+            double[] expected = dijkstra(graph, start);
+            for (int v = 0; v < graph.vertexCount(); v++) {
+                if (expected[v] < Double.POSITIVE_INFINITY) {
+                    assertTrue(landmarks.estimate(v, start) <= expected[v] + EPSILON);
+                }
+            }
+            for (int k = 0; k < 10; k++) {
+                int end = r.nextInt(graph.vertexCount());
+                checkRoute(graph, expected, start, end, router.route(start, end));
+            }
+        }
+    }
+
+    @Test
+    public void testIndexedMinHeapOrdersKeys() {
+        Random r = new Random(11);
+        IndexedMinHeap heap = new IndexedMinHeap(100);
+        double[] keys = new double[100];
+        for (int round = 0; round < 3; round++) {
+            Arrays.fill(keys, Double.POSITIVE_INFINITY);
+            for (int i = 0; i < 400; i++) {
+                int id = r.nextInt(100);
+                double key = r.nextDouble();
+                boolean changed = heap.insertOrDecrease(id, key);
+                assertEquals(key < keys[id], changed);
+                keys[id] = Math.min(keys[id], key);
+            }
+            double last = Double.NEGATIVE_INFINITY;
+            while (!heap.isEmpty()) {
+                double key = heap.peekKey();
+                int id = heap.poll();
+                assertEquals(keys[id], key, 0);
+                assertTrue(key >= last);
+                last = key;
+            }
+            heap.insertOrDecrease(7, 1.0);
+            heap.clear();
+            assertTrue(heap.isEmpty());
+            assertTrue(!heap.contains(7));
+        }
+    }
+}
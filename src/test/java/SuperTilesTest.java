@@ -0,0 +1,94 @@
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SuperTilesTest {
+    private static final int TILE_SIZE = 8;
+
+    /** Tiles whose every pixel differs, with their name and position. */
+    private static final TileCache.Loader LOADER = name -> {
+        BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < TILE_SIZE; y++) {
+            for (int x = 0; x < TILE_SIZE; x++) {
+                tile.setRGB(x, y, name.hashCode() * 31 + y * TILE_SIZE + x);
+            }
+        }
+        return tile;
+    };
+
+    private static String[][] grid(int depth, int ulColumn, int ulRow, int columns, int rows) {
+        String[][] names = new String[rows][columns];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                names[i][j] = QuadTree.tileName(ulColumn + j, ulRow + i, depth) + ".png";
+            }
+        }
+        return names;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    @Test
+    public void testCompositeMatchesCompositor() throws IOException {
+        File file = File.createTempFile("supertiles", ".bin");
+        file.deleteOnExit();
+        SuperTiles.build(file, LOADER, TILE_SIZE, new int[]{3}, new int[]{2});
+        SuperTiles superTiles = SuperTiles.open(file, TILE_SIZE);
+        assertNotNull(superTiles);
+        assertEquals(2, superTiles.size(3));
+        assertEquals(0, superTiles.size(2));
+
+        TileCompositor compositor = new TileCompositor(new TileCache(1 << 20, LOADER),
+                TILE_SIZE);
+        /* Columns 1 to 3 and rows 1 and 2 straddle four super-tiles; columns 2 and 3 of a
+         * row are copied from one of them as a single run. */
+        String[][] names = grid(3, 1, 1, 3, 2);
+        BufferedImage sliced = superTiles.composite(names);
+        assertNotNull(sliced);
+        assertArrayEquals(pixels(compositor.composite(names)), pixels(sliced));
+
+        assertTrue(superTiles.covers(names));
+
+        assertNull(superTiles.composite(grid(2, 0, 0, 2, 2)));
+        assertFalse(superTiles.covers(grid(2, 0, 0, 2, 2)));
+        names[1][2] = "root.png";
+        assertNull(superTiles.composite(names));
+        assertFalse(superTiles.covers(names));
+        assertNull(SuperTiles.open(file, 2 * TILE_SIZE));
+    }
+
+    @Test
+    public void testBuildsOnlyTheLargestSizeThatFits() throws IOException {
+        File file = File.createTempFile("supertiles", ".bin");
+        file.deleteOnExit();
+        SuperTiles.build(file, LOADER, TILE_SIZE, new int[]{1, 3}, SuperTiles.DEFAULT_SIZES);
+        SuperTiles superTiles = SuperTiles.open(file, TILE_SIZE);
+        assertNotNull(superTiles);
+        assertEquals(2, superTiles.size(1));
+        assertEquals(4, superTiles.size(3));
+        /* One 2x2 super-tile at depth 1 and four 4x4 ones at depth 3, nothing else. */
+        long pixels = 4L * TILE_SIZE * TILE_SIZE;
+        assertEquals(4 * 4 + 5 * (4 * 4 + 8) + 4 * pixels + 4 * 16 * pixels, file.length());
+
+        TileCompositor compositor = new TileCompositor(new TileCache(1 << 20, LOADER),
+                TILE_SIZE);
+        String[][] names = grid(3, 2, 3, 4, 3);
+        assertArrayEquals(pixels(compositor.composite(names)),
+                pixels(superTiles.composite(names)));
+        names = grid(1, 0, 0, 2, 2);
+        assertArrayEquals(pixels(compositor.composite(names)),
+                pixels(superTiles.composite(names)));
+    }
+}
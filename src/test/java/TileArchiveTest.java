@@ -0,0 +1,76 @@
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TileArchiveTest {
+    private static File tile(File dir, String name, int color) throws IOException {
+        BufferedImage image = new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 4; x++) {
+                image.setRGB(x, y, color + 16 * y + x);
+            }
+        }
+        File file = new File(dir, name);
+        ImageIO.write(image, "png", file);
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0,
+                image.getWidth());
+    }
+
+    @Test
+    public void testPackedTilesMatchFiles() throws IOException {
+        File dir = Files.createTempDirectory("tiles").toFile();
+        dir.deleteOnExit();
+        File[] tiles = {tile(dir, "root.png", 0x102030), tile(dir, "14.png", 0x405060)};
+        File notTile = new File(dir, "notes.txt");
+        Files.write(notTile.toPath(), new byte[]{1, 2, 3});
+        notTile.deleteOnExit();
+        File file = new File(dir, "tiles.pack");
+        file.deleteOnExit();
+
+        assertEquals(2, TileArchive.pack(dir, file));
+        TileArchive archive = TileArchive.open(file);
+        assertNotNull(archive);
+        assertEquals(2, archive.size());
+        for (File tile : tiles) {
+            byte[] expected = Files.readAllBytes(tile.toPath());
+            ByteBuffer bytes = archive.get(tile.getName());
+            byte[] packed = new byte[bytes.remaining()];
+            bytes.get(packed);
+            assertArrayEquals(expected, packed);
+
+            CRC32 crc = new CRC32();
+            crc.update(expected);
+            assertEquals(TileFiles.etag(crc.getValue(), expected.length),
+                    archive.etag(tile.getName()));
+            assertArrayEquals(pixels(ImageIO.read(tile)),
+                    pixels(archive.read(tile.getName())));
+        }
+        assertNull(archive.get("notes.txt"));
+        assertNull(archive.etag("2.png"));
+    }
+
+    @Test
+    public void testRejectsOtherFiles() throws IOException {
+        File file = File.createTempFile("tiles", ".pack");
+        file.deleteOnExit();
+        Files.write(file.toPath(), new byte[]{'B', 'M', 'S', 'T', 0, 0, 0, 1, 0, 0, 0, 0});
+        assertNull(TileArchive.open(file));
+        assertNull(TileArchive.open(new File(file.getPath() + ".missing")));
+    }
+}
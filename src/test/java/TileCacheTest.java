@@ -0,0 +1,120 @@
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TileCacheTest {
+    /** A 16x16 TYPE_INT_RGB tile weighs 1 KiB. */
+    private static final long TILE_BYTES = 16 * 16 * 4;
+
+    private static BufferedImage tile() {
+        return new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedByBytes() throws IOException {
+        AtomicInteger loads = new AtomicInteger();
+        TileCache cache = new TileCache(3 * TILE_BYTES, name -> {
+            loads.incrementAndGet();
+            return tile();
+        });
+        BufferedImage a = cache.get("a");
+        cache.get("b");
+        cache.get("c");
+        assertSame(a, cache.get("a"));
+        cache.get("d");
+        assertEquals(3, cache.size());
+        assertEquals(3 * TILE_BYTES, cache.weightBytes());
+        assertEquals(1, cache.evictionCount());
+
+        assertSame(a, cache.get("a"));
+        cache.get("b");
+        assertEquals(5, loads.get());
+        assertEquals(2, cache.hitCount());
+        assertEquals(5, cache.missCount());
+    }
+
+    @Test
+    public void testConcurrentMissesLoadOnce() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        TileCache cache = new TileCache(100 * TILE_BYTES, name -> {
+            loads.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return tile();
+        });
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<BufferedImage>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(pool.submit(() -> cache.get("tile")));
+        }
+        while (cache.missCount() < 8) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        BufferedImage first = results.get(0).get();
+        for (Future<BufferedImage> result : results) {
+            assertSame(first, result.get());
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.loadCount());
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws IOException {
+        AtomicInteger loads = new AtomicInteger();
+        TileCache cache = new TileCache(100 * TILE_BYTES, name -> {
+            if (loads.incrementAndGet() == 1) {
+                throw new IOException("missing");
+            }
+            return tile();
+        });
+        try {
+            cache.get("tile");
+            fail();
+        } catch (IOException e) {
+            assertEquals("missing", e.getMessage());
+        }
+        cache.get("tile");
+        assertEquals(2, loads.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testPrefetchHitsAndWaste() throws IOException {
+        TileCache cache = new TileCache(2 * TILE_BYTES, name -> tile());
+        assertTrue(cache.prefetch("a"));
+        assertFalse(cache.prefetch("a"));
+        assertEquals(0, cache.hitCount() + cache.missCount());
+        cache.get("a");
+        cache.get("a");
+        assertEquals(1, cache.prefetchHitCount());
+
+        assertTrue(cache.prefetch("b"));
+        cache.get("c");
+        cache.get("d");
+        assertEquals(2, cache.prefetchCount());
+        assertEquals(1, cache.prefetchWastedCount());
+        assertEquals(1, cache.prefetchHitCount());
+    }
+}
@@ -0,0 +1,36 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TilePrefetcherTest {
+    @Test
+    public void testRingThenMiddleChildren() {
+        /* Columns 1 and 2, row 1 of depth 2. */
+        String[][] grid = {{"14.png", "23.png"}};
+        List<String> candidates = TilePrefetcher.candidates(grid);
+        List<String> ring = Arrays.asList("11.png", "12.png", "21.png", "22.png",
+                "13.png", "24.png", "31.png", "32.png", "41.png", "42.png");
+        assertEquals(ring, candidates.subList(0, ring.size()));
+        /* The middle half of the children of 14 and 23. */
+        assertEquals(Arrays.asList("142.png", "231.png", "144.png", "233.png"),
+                candidates.subList(ring.size(), candidates.size()));
+    }
+
+    @Test
+    public void testStaysOnTheMap() {
+        String[][] grid = {{"root.png", "1.png"}, {"root.png", "3.png"}};
+        List<String> candidates = TilePrefetcher.candidates(grid);
+        assertTrue(candidates.containsAll(Arrays.asList("2.png", "4.png")));
+        assertFalse(candidates.contains("root.png"));
+        for (String name : candidates) {
+            assertTrue(name, name.matches("[1-4]{1,2}\\.png"));
+        }
+        assertEquals(Arrays.asList("1.png", "2.png", "3.png", "4.png"),
+                TilePrefetcher.candidates(new String[][]{{"root"}}));
+    }
+}
@@ -0,0 +1,159 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the size and the prefix lookup times of DictionaryBasedTrie and NameIndex, on
+ * synthetic place names built from words common in the OSM file, and checks that both return
+ * the same completions. Also times NameIndex's top-K completions, and reports the latency
+ * percentiles of its typo-tolerant completions, for prefixes with one or two random typos, and
+ * of its search by words in any order, for a later word of a name then the start of its first.
+ * Not a unit test; run its main method, e.g. from the test classpath:
+ * <pre>
+ *     java -cp target/classes:target/test-classes TrieBenchmark [names]
+ * </pre>
+ */
+public class TrieBenchmark {
+    private static final String[] WORDS = {"Sather", "Gate", "Hall", "Cafe", "Coffee",
+        "Street", "Avenue", "Telegraph", "Shattuck", "Wheeler", "Soda", "Evans", "Top", "Dog",
+        "Strada", "Brewed", "Awakening", "Peet's", "Library", "Park", "Center", "House",
+        "Market", "Bank", "Pizza", "Thai", "Noodle", "Books", "School", "Church"};
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        Random random = new Random(22);
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder name = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+            for (int w = random.nextInt(3); w >= 0; w--) {
+                name.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            if (random.nextInt(4) == 0) {
+                name.append(' ').append(random.nextInt(1000));
+            }
+            names.add(name.toString());
+        }
+
+        long before = usedHeap();
+        DictionaryBasedTrie dictionaryTrie = new DictionaryBasedTrie();
+        for (String name : names) {
+            dictionaryTrie.addWord(name);
+        }
+        long dictionaryBytes = usedHeap() - before;
+
+        NameIndex.Builder indexBuilder = new NameIndex.Builder();
+        for (int i = 0; i < count; i++) {
+            indexBuilder.add(names.get(i), 0, 0, i);
+        }
+        NameIndex nameIndex = indexBuilder.build();
+
+        String[] prefixes = new String[1000];
+        for (int i = 0; i < prefixes.length; i++) {
+            String name = GraphDB.cleanString(names.get(random.nextInt(count)));
+            prefixes[i] = name.substring(0, Math.min(name.length(), 3 + random.nextInt(6)));
+            if (!new HashSet<>(dictionaryTrie.lookupWords(prefixes[i]))
+                    .equals(new HashSet<>(nameIndex.lookupWords(prefixes[i])))) {
+                throw new AssertionError("Trie and index disagree on " + prefixes[i]);
+            }
+        }
+
+        System.out.printf("%d names, %d distinct, %d transducer states%n", count,
+                nameIndex.size(), nameIndex.stateCount());
+        System.out.printf("%-22s %14s %14s%n", "", "dictionary", "name index");
+        System.out.printf("%-22s %14.1f %14.1f%n", "size (MB)", dictionaryBytes / 1e6,
+                nameIndex.byteSize() / 1e6);
+        System.out.printf("%-22s %14.2f %14.2f%n", "lookupWords (us)",
+                time(i -> dictionaryTrie.lookupWords(prefixes[i % prefixes.length]).size(),
+                        20000),
+                time(i -> nameIndex.lookupWords(prefixes[i % prefixes.length]).size(),
+                        20000));
+        System.out.printf("%-22s %14s %14.2f%n", "topCompletions (us)", "",
+                time(i -> nameIndex.topCompletions(prefixes[i % prefixes.length], 10)
+                        .size(), 2000000));
+
+        String[] typos = new String[1000];
+        for (int i = 0; i < typos.length; i++) {
+            String name = GraphDB.cleanString(names.get(random.nextInt(count)));
+            StringBuilder typo = new StringBuilder(name.substring(0,
+                    Math.min(name.length(), 6 + random.nextInt(8))));
+            for (int e = random.nextInt(2); e >= 0 && typo.length() > 1; e--) {
+                int at = random.nextInt(typo.length());
+                char c = (char) ('a' + random.nextInt(26));
+                switch (random.nextInt(3)) {
+                    case 0:
+                        typo.setCharAt(at, c);
+                        break;
+                    case 1:
+                        typo.insert(at, c);
+                        break;
+                    default:
+                        typo.deleteCharAt(at);
+                }
+            }
+            typos[i] = typo.toString();
+        }
+        long[] nanos = new long[20000];
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < nanos.length; i++) {
+                long start = System.nanoTime();
+                nameIndex.fuzzyCompletions(typos[i % typos.length], 2, 10);
+                nanos[i] = System.nanoTime() - start;
+            }
+        }
+        printPercentiles("fuzzyCompletions, 2 edits", nanos);
+
+        String[] queries = new String[1000];
+        for (int i = 0; i < queries.length; i++) {
+            String[] words = GraphDB.cleanString(names.get(random.nextInt(count))).split(" ");
+            String word = words[random.nextInt(words.length)];
+            queries[i] = words[0].equals(word) ? word.substring(0, 1 + random.nextInt(
+                    word.length())) : word + " " + words[0].substring(0, 2);
+        }
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < nanos.length; i++) {
+                long start = System.nanoTime();
+                nameIndex.wordCompletions(queries[i % queries.length], 10);
+                nanos[i] = System.nanoTime() - start;
+            }
+        }
+        printPercentiles("wordCompletions", nanos);
+    }
+
+    private static void printPercentiles(String label, long[] nanos) {
+        Arrays.sort(nanos);
+        System.out.printf("%s (us): p50 %.1f, p99 %.1f, max %.1f%n", label,
+                nanos[nanos.length / 2] / 1e3, nanos[nanos.length * 99 / 100] / 1e3,
+                nanos[nanos.length - 1] / 1e3);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private interface Lookup {
+        int run(int i);
+    }
+
+    /** Returns the mean microseconds per lookup, after as many warm-up lookups. */
+    private static double time(Lookup lookup, int lookups) {
+        long sink = 0;
+        for (int i = 0; i < lookups; i++) {
+            sink += lookup.run(i);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            sink += lookup.run(i);
+        }
+        double micros = (System.nanoTime() - start) / 1e3 / lookups;
+        if (sink == 42) {
+            System.out.println();
+        }
+        return micros;
+    }
+}